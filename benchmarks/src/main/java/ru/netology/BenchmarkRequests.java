@@ -0,0 +1,87 @@
+package ru.netology;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+//BenchmarkRequests:
+//
+//Готовые запросы для бенчмарков: байты головы, тела форм и multipart заданного размера
+//Содержимое детерминированное (фиксированный seed), чтобы прогоны были сравнимы
+final class BenchmarkRequests {
+    static final int MAX_HEADER_SIZE = 1024 * 1024;
+    static final int MAX_HEADERS = 1000;
+    static final String BOUNDARY = "----BenchmarkBoundary7MA4YWxkTrZu0gW";
+
+    private BenchmarkRequests() {
+    }
+
+    // Голова запроса: request line, headers заголовков, похожих на браузерные, и пустая строка
+    static byte[] head(String method, String target, int headers, String... extra) {
+        StringBuilder text = new StringBuilder();
+        text.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        text.append("Host: localhost:9999\r\n");
+        for (String header : extra) {
+            text.append(header).append("\r\n");
+        }
+        for (int i = 1; i < headers; i++) {
+            text.append("X-Benchmark-Header-").append(i).append(": value-").append(i)
+                    .append("-abcdefghijklmnopqrstuvwxyz\r\n");
+        }
+        text.append("\r\n");
+        return text.toString().getBytes(US_ASCII);
+    }
+
+    // Target с params Query параметрами, часть значений с %XX
+    static String target(int params) {
+        StringBuilder target = new StringBuilder("/api/v1/search");
+        for (int i = 0; i < params; i++) {
+            target.append(i == 0 ? '?' : '&').append("param").append(i).append('=');
+            target.append(i % 3 == 0 ? "%D0%B7%D0%BD%D0%B0%D1%87%D0%B5%D0%BD%D0%B8%D0%B5" : "value" + i);
+        }
+        return target.toString();
+    }
+
+    static RequestHead parse(byte[] head) {
+        RequestParser parser = new RequestParser(MAX_HEADER_SIZE, MAX_HEADERS);
+        try {
+            int length = parser.parse(head, 0, head.length);
+            if (length != head.length) {
+                throw new IllegalStateException("Incomplete request head");
+            }
+            return parser.finish(head, 0, length);
+        } catch (RequestParseException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // application/x-www-form-urlencoded тело примерно из size байт
+    static byte[] urlencoded(int size) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; body.length() < size; i++) {
+            if (i > 0) body.append('&');
+            body.append("field").append(i).append('=').append(i % 2 == 0 ? "plain-value" : "with%20space%26amp");
+        }
+        return body.toString().getBytes(US_ASCII);
+    }
+
+    // multipart/form-data: одно текстовое поле и файл из size случайных байт
+    static byte[] multipart(int size) {
+        byte[] file = new byte[size];
+        new Random(42).nextBytes(file);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(size + 512);
+        body.writeBytes(("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"title\"\r\n" +
+                "\r\n" +
+                "benchmark upload\r\n" +
+                "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"data.bin\"\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "\r\n").getBytes(ISO_8859_1));
+        body.writeBytes(file);
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(ISO_8859_1));
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,72 @@
+package ru.netology;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+//BodyParserBenchmark:
+//
+//Разбор тел POST запросов тем же кодом, что и в сервере (Request.decodeBody())
+//Тело читается из памяти, поэтому меряется только разбор, без сети
+//multipart с файлом больше порога multipartFileThreshold (64 КБ) включает запись
+//во временный файл и его удаление - так же, как при настоящей загрузке
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BodyParserBenchmark {
+    @State(Scope.Thread)
+    public static class Bodies {
+        @Param({"1024", "65536", "1048576"})
+        int size;
+
+        RequestHead urlencodedHead;
+        byte[] urlencoded;
+        RequestHead multipartHead;
+        byte[] multipart;
+
+        @Setup
+        public void setUp() {
+            urlencoded = BenchmarkRequests.urlencoded(size);
+            urlencodedHead = BenchmarkRequests.parse(BenchmarkRequests.head("POST", "/forms", 1,
+                    "Content-Type: application/x-www-form-urlencoded",
+                    "Content-Length: " + urlencoded.length));
+            multipart = BenchmarkRequests.multipart(size);
+            multipartHead = BenchmarkRequests.parse(BenchmarkRequests.head("POST", "/upload", 1,
+                    "Content-Type: multipart/form-data; boundary=" + BenchmarkRequests.BOUNDARY,
+                    "Content-Length: " + multipart.length));
+        }
+    }
+
+    @Benchmark
+    public Object urlencoded(Bodies state) {
+        Request request = new Request(state.urlencodedHead, new ByteArrayInputStream(state.urlencoded),
+                ServerConfig.DEFAULT_MULTIPART_FILE_THRESHOLD);
+        return request.getFormParams();
+    }
+
+    @Benchmark
+    public void multipart(Bodies state, Blackhole blackhole) {
+        Request request = new Request(state.multipartHead, new ByteArrayInputStream(state.multipart),
+                ServerConfig.DEFAULT_MULTIPART_FILE_THRESHOLD);
+        try {
+            blackhole.consume(request.getMultipartParam("title"));
+            blackhole.consume(request.getFileParam("file").getSize());
+        } finally {
+            request.deleteTemporaryFiles();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package ru.netology;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//LoopbackBenchmark:
+//
+//Сквозной бенчмарк: настоящий Server на 127.0.0.1 и клиенты в потоках JMH
+//Каждый поток JMH - отдельный клиент (LoopbackClient), число клиентов задается -t,
+//например: java -jar benchmarks.jar LoopbackBenchmark -t 64 -p engine=NIO -p keepAlive=false
+//Режимы: Throughput - запросов в секунду, SampleTime - распределение задержек
+//(JMH печатает перцентили p0.50 ... p0.9999)
+//
+//Маршрут задается -p path=...: /hello - маленький ответ из памяти,
+///index.html и другие файлы из ./public - статика через StaticCache
+//Печать запросов в консоль выключена, как и должно быть под нагрузкой
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Threads(16)
+public class LoopbackBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final byte[] HELLO = "Hello, World!".getBytes(UTF_8);
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+        @Param({"BLOCKING", "NIO"})
+        String engine;
+
+        @Param({"false"})
+        boolean virtualThreads;
+
+        @Param({"19999"})
+        int port;
+
+        Server server;
+        Thread thread;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            server = new Server(ServerConfig.builder(port)
+                    .engine(ServerConfig.Engine.valueOf(engine))
+                    .virtualThreads(virtualThreads)
+                    .maxKeepAliveRequests(Integer.MAX_VALUE)
+                    .logRequests(false)
+                    .build());
+            server.addHandler("GET", "/hello", (request, out) -> {
+                try {
+                    server.sendOk(out, "text/plain", HELLO);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Path publicDir = Path.of(".", "public");
+            if (Files.isDirectory(publicDir)) {
+                StaticFileHandler staticFiles = new StaticFileHandler(server, publicDir,
+                        new StaticCache(16 * 1024 * 1024, 1024 * 1024));
+                for (String path : staticFiles.getPaths()) {
+                    server.addHandler("GET", path, staticFiles);
+                }
+            }
+            thread = new Thread(() -> {
+                try {
+                    server.start();
+                } catch (IOException e) {
+                    System.err.println("Server failed to start: " + e.getMessage());
+                }
+            }, "benchmark-server");
+            thread.setDaemon(true);
+            thread.start();
+            awaitListening();
+        }
+
+        private void awaitListening() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (System.currentTimeMillis() < deadline) {
+                try {
+                    new Socket(HOST, port).close();
+                    return;
+                } catch (IOException e) {
+                    Thread.sleep(50);
+                }
+            }
+            throw new IllegalStateException("Server did not start on port " + port);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            server.stop();
+            thread.join(5_000);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ClientState {
+        @Param({"true", "false"})
+        boolean keepAlive;
+
+        @Param({"/hello"})
+        String path;
+
+        LoopbackClient client;
+
+        @Setup(Level.Trial)
+        public void connect(ServerState server) {
+            client = new LoopbackClient(HOST, server.port, path, keepAlive);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public int request(ClientState state) throws IOException {
+        int status = state.client.execute();
+        if (status != 200) {
+            throw new IllegalStateException("Unexpected status " + status + " for " + state.path);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.netology;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+//LoopbackClient:
+//
+//Минимальный HTTP/1.1 клиент для сквозного бенчмарка: один запрос - один ответ
+//keepAlive: одно соединение на все запросы (переоткрывается, если сервер его закрыл),
+//иначе новое соединение с Connection: close на каждый запрос
+//Ответ читается целиком (по Content-Length или до закрытия), тело выбрасывается
+final class LoopbackClient implements Closeable {
+    private final String host;
+    private final int port;
+    private final boolean keepAlive;
+    private final byte[] request;
+    private final byte[] skip = new byte[8 * 1024];
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    LoopbackClient(String host, int port, String path, boolean keepAlive) {
+        this.host = host;
+        this.port = port;
+        this.keepAlive = keepAlive;
+        this.request = ("GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + host + ":" + port + "\r\n" +
+                (keepAlive ? "" : "Connection: close\r\n") +
+                "\r\n").getBytes(US_ASCII);
+    }
+
+    // Отправляет запрос и возвращает код статуса ответа
+    int execute() throws IOException {
+        if (socket == null) {
+            connect();
+        }
+        out.write(request);
+        out.flush();
+        int status = readResponse();
+        if (!keepAlive) {
+            close();
+        }
+        return status;
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+        out = socket.getOutputStream();
+    }
+
+    private int readResponse() throws IOException {
+        String statusLine = readLine();
+        if (statusLine.length() < 12) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        int status = Integer.parseInt(statusLine.substring(9, 12));
+        long contentLength = -1;
+        boolean close = false;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon == -1) continue;
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("content-length")) {
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("connection") && value.equalsIgnoreCase("close")) {
+                close = true;
+            }
+        }
+        if (contentLength >= 0) {
+            skip(contentLength);
+        } else {
+            // Без длины тело заканчивается закрытием соединения
+            while (in.read(skip) != -1) {
+                // пропускаем
+            }
+            close = true;
+        }
+        if (close) {
+            close();
+        }
+        return status;
+    }
+
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            int n = in.read(skip, 0, (int) Math.min(skip.length, length));
+            if (n == -1) {
+                throw new EOFException("Connection closed in the middle of a response");
+            }
+            length -= n;
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Connection closed in the middle of a response");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+    }
+}
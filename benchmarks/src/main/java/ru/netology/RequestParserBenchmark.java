@@ -0,0 +1,92 @@
+package ru.netology;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+//RequestParserBenchmark:
+//
+//Разбор головы запроса RequestParser'ом при разном числе заголовков
+//parseHead - только parse() + finish(), как в горячем пути сервера
+//readHeaders - плюс обращения обработчика: пара getHeader() и весь getHeaders()
+//requestLine - Request.parse() одной строки без заголовков
+//queryParams - request line с разным числом Query параметров и их декодирование
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParserBenchmark {
+    @State(Scope.Thread)
+    public static class Heads {
+        @Param({"5", "20", "60"})
+        int headers;
+
+        byte[] head;
+        RequestParser parser;
+
+        @Setup
+        public void setUp() {
+            head = BenchmarkRequests.head("GET", "/index.html", headers,
+                    "User-Agent: Mozilla/5.0 (X11; Linux x86_64) Benchmark/1.0",
+                    "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8",
+                    "Accept-Encoding: gzip, deflate, br",
+                    "Connection: keep-alive");
+            parser = new RequestParser(BenchmarkRequests.MAX_HEADER_SIZE, BenchmarkRequests.MAX_HEADERS);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Queries {
+        @Param({"1", "10", "50"})
+        int params;
+
+        byte[] head;
+        RequestParser parser;
+
+        @Setup
+        public void setUp() {
+            head = BenchmarkRequests.head("GET", BenchmarkRequests.target(params), 1);
+            parser = new RequestParser(BenchmarkRequests.MAX_HEADER_SIZE, BenchmarkRequests.MAX_HEADERS);
+        }
+    }
+
+    @Benchmark
+    public Object parseHead(Heads state) throws RequestParseException {
+        int length = state.parser.parse(state.head, 0, state.head.length);
+        return state.parser.finish(state.head, 0, length);
+    }
+
+    @Benchmark
+    public void readHeaders(Heads state, Blackhole blackhole) throws RequestParseException {
+        int length = state.parser.parse(state.head, 0, state.head.length);
+        Request request = new Request(state.parser.finish(state.head, 0, length), InputStream.nullInputStream(), 0);
+        blackhole.consume(request.getHeader("accept-encoding"));
+        blackhole.consume(request.isKeepAlive());
+        blackhole.consume(request.getHeaders());
+    }
+
+    @Benchmark
+    public Request requestLine() {
+        return Request.parse("GET /api/v1/messages/42?last=10 HTTP/1.1");
+    }
+
+    @Benchmark
+    public Object queryParams(Queries state) throws RequestParseException {
+        int length = state.parser.parse(state.head, 0, state.head.length);
+        Request request = new Request(state.parser.finish(state.head, 0, length), InputStream.nullInputStream(), 0);
+        return request.getQueryParams();
+    }
+}
@@ -0,0 +1,86 @@
+package ru.netology;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//RouterBenchmark:
+//
+//Поиск обработчика в Router при разном числе маршрутов
+//На каждый ресурс регистрируются точный маршрут, маршрут с параметром и отдельный POST,
+//плюс общий wildcard для статики - примерно как в реальном приложении
+//Пути для поиска берутся из середины таблицы, чтобы не попадать в первый же узел
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouterBenchmark {
+    private static final Handler NOOP = (request, out) -> {
+    };
+
+    @Param({"10", "100", "1000"})
+    int resources;
+
+    Router router;
+    int[] captures;
+    String staticPath;
+    String paramPath;
+    String wildcardPath;
+    String missingPath;
+
+    @Setup
+    public void setUp() {
+        Router.Builder builder = Router.builder();
+        for (int i = 0; i < resources; i++) {
+            builder.add("GET", "/api/v1/resource" + i + "/items", NOOP);
+            builder.add("GET", "/api/v1/resource" + i + "/{id}", NOOP);
+            builder.add("POST", "/api/v1/resource" + i + "/{id}", NOOP);
+        }
+        builder.add("GET", "/static/*", NOOP);
+        router = builder.build();
+        captures = new int[router.getMaxParams() * 2];
+        int middle = resources / 2;
+        staticPath = "/api/v1/resource" + middle + "/items";
+        paramPath = "/api/v1/resource" + middle + "/42";
+        wildcardPath = "/static/css/site/styles.css";
+        missingPath = "/api/v2/resource" + middle + "/items";
+    }
+
+    @Benchmark
+    public Object staticRoute() {
+        return router.find("GET", staticPath, captures);
+    }
+
+    @Benchmark
+    public Object paramRoute() {
+        return router.find("GET", paramPath, captures);
+    }
+
+    @Benchmark
+    public Object wildcardRoute() {
+        return router.find("GET", wildcardPath, captures);
+    }
+
+    // 405: путь есть, метода нет - второй проход по дереву
+    @Benchmark
+    public Object methodNotAllowed() {
+        return router.find("DELETE", paramPath, captures);
+    }
+
+    @Benchmark
+    public Object notFound() {
+        return router.find("GET", missingPath, captures);
+    }
+}
@@ -0,0 +1,336 @@
+package ru.netology;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//AccessLog:
+//
+//Журнал запросов, который не тормозит обработку
+//Поток запроса только собирает запись (несколько ссылок и чисел) и кладет ее в MpscRing;
+//форматирование, кодирование и запись в файл делает один фоновый поток "access-log",
+//который забирает записи пачками и пишет их в FileChannel большими кусками
+//Когда очередь полна (диск не успевает), запись либо теряется (DROP, счетчик getDroppedCount()),
+//либо поток запроса ждет места (BLOCK)
+//Файл переименовывается в access.log.2024-05-01-120000 и начинается заново,
+//когда превышает maxFileSize или прошло rotateInterval миллисекунд с его открытия
+//
+//Формат - строка с полями в стиле Apache:
+//%h - адрес клиента, %t - время [10/Oct/2024:13:55:36 +0300], %r - request line,
+//%m - метод, %U - путь, %H - протокол, %s - статус, %b - байт ответа ("-" если 0),
+//%D - время обработки в микросекундах, %{Name}i - заголовок запроса, %% - знак процента
+public class AccessLog implements Closeable {
+    public static final String COMMON_FORMAT = "%h - - %t \"%r\" %s %b";
+    public static final String COMBINED_FORMAT = COMMON_FORMAT + " \"%{Referer}i\" \"%{User-Agent}i\"";
+
+    public enum Overflow {
+        DROP,
+        BLOCK
+    }
+
+    private static final DateTimeFormatter CLF_TIME = DateTimeFormatter
+            .ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+            .withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter ROTATED_SUFFIX = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd-HHmmss", Locale.ROOT)
+            .withZone(ZoneId.systemDefault());
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Пустая очередь: писатель засыпает сначала на 1 мс, затем все дольше, до 100 мс
+    private static final long MIN_PARK = 1_000_000;
+    private static final long MAX_PARK = 100_000_000;
+    private static final long BLOCK_PARK = 50_000;
+
+    private final Path file;
+    private final Part[] format;
+    private final String[] headerNames;
+    private final long maxFileSize;
+    private final long rotateInterval;
+    private final Overflow overflow;
+    private final MpscRing<Entry> ring;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Дальше - только для потока writer
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = UTF_8.newEncoder();
+    private final StringBuilder line = new StringBuilder(256);
+    private FileChannel channel;
+    private long fileSize;
+    private long openedAt;
+    private long timeSecond = -1;
+    private String timeText;
+//Конструктор AccessLog(Path file, String format, int capacity, Overflow overflow, long maxFileSize, long rotateInterval):
+//
+//capacity - размер очереди записей (степень двойки)
+//maxFileSize в байтах и rotateInterval в миллисекундах; 0 отключает соответствующую ротацию
+    public AccessLog(Path file, String format, int capacity, Overflow overflow, long maxFileSize, long rotateInterval) throws IOException {
+        if (maxFileSize < 0 || rotateInterval < 0) {
+            throw new IllegalArgumentException("Rotation limits must not be negative");
+        }
+        this.file = file.toAbsolutePath();
+        List<String> headers = new ArrayList<>();
+        this.format = parse(format, headers);
+        this.headerNames = headers.toArray(new String[0]);
+        this.maxFileSize = maxFileSize;
+        this.rotateInterval = rotateInterval;
+        this.overflow = overflow;
+        this.ring = new MpscRing<>(capacity);
+        open();
+        this.writer = new Thread(this::run, "access-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+//log(Request request, int status, long bytes, long nanos):
+//
+//Вызывается потоком запроса после ответа; строка формируется позже, в потоке writer
+    void log(Request request, int status, long bytes, long nanos) {
+        String[] headers = new String[headerNames.length];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = request.getHeader(headerNames[i]);
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), request, status, bytes, nanos, headers);
+        if (ring.offer(entry)) {
+            return;
+        }
+        // Писатель мог уснуть надолго: очередь полна, пора разбирать
+        LockSupport.unpark(writer);
+        if (overflow == Overflow.DROP || !running) {
+            dropped.increment();
+            return;
+        }
+        while (!ring.offer(entry)) {
+            if (!running) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.parkNanos(BLOCK_PARK);
+        }
+    }
+
+    // Сколько записей потеряно из-за переполненной очереди
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void run() {
+        long park = MIN_PARK;
+        while (true) {
+            boolean stopping = !running;
+            int count = 0;
+            Entry entry;
+            while ((entry = ring.poll()) != null) {
+                write(entry);
+                count++;
+            }
+            try {
+                if (buffer.position() > 0) {
+                    flushBuffer();
+                }
+                if (rotateInterval > 0 && System.currentTimeMillis() - openedAt >= rotateInterval && fileSize > 0) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                System.err.println("Access log error: " + e.getMessage());
+            }
+            if (stopping) break;
+            if (count > 0) {
+                park = MIN_PARK;
+            } else {
+                LockSupport.parkNanos(park);
+                park = Math.min(park * 2, MAX_PARK);
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Файл журнала уже закрыт
+        }
+    }
+//write(Entry entry):
+//
+//Кодирует строку прямо в буфер; в буфере всегда только целые строки,
+//поэтому при ротации строка не разрывается между файлами
+    private void write(Entry entry) {
+        line.setLength(0);
+        format(entry);
+        line.append('\n');
+        CharBuffer chars = CharBuffer.wrap(line);
+        int lineStart = buffer.position();
+        try {
+            if (encoder.encode(chars, buffer, true) == CoderResult.OVERFLOW) {
+                buffer.position(lineStart);
+                flushBuffer();
+                chars.rewind();
+                encoder.reset();
+                // Строка длиннее всего буфера уходит по частям, без ротации посередине
+                while (encoder.encode(chars, buffer, true) == CoderResult.OVERFLOW) {
+                    writeBuffer();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Access log error: " + e.getMessage());
+            buffer.clear();
+        } finally {
+            encoder.reset();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (maxFileSize > 0 && fileSize > 0 && fileSize + buffer.position() > maxFileSize) {
+            rotate();
+        }
+        writeBuffer();
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fileSize += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+        openedAt = System.currentTimeMillis();
+    }
+//rotate():
+//
+//Закрывает текущий файл, переименовывает его с отметкой времени и открывает новый
+    private void rotate() throws IOException {
+        channel.close();
+        String base = file.getFileName() + "." + ROTATED_SUFFIX.format(Instant.now());
+        Path rotated = file.resolveSibling(base);
+        for (int i = 1; Files.exists(rotated); i++) {
+            rotated = file.resolveSibling(base + "-" + i);
+        }
+        Files.move(file, rotated);
+        open();
+    }
+//close():
+//
+//Дописывает все, что уже в очереди, и закрывает файл
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void format(Entry entry) {
+        Request request = entry.request();
+        for (Part part : format) {
+            switch (part.code()) {
+                case 0 -> line.append(part.text());
+                case 'h' -> orDash(request.getRemoteAddress());
+                case 't' -> line.append('[').append(time(entry.time())).append(']');
+                case 'r' -> line.append(request.getMethod()).append(' ')
+                        .append(request.getTarget()).append(' ').append(request.getProtocol());
+                case 'm' -> line.append(request.getMethod());
+                case 'U' -> line.append(request.getPath());
+                case 'H' -> line.append(request.getProtocol());
+                case 's' -> {
+                    if (entry.status() > 0) line.append(entry.status());
+                    else line.append('-');
+                }
+                case 'b' -> {
+                    if (entry.bytes() > 0) line.append(entry.bytes());
+                    else line.append('-');
+                }
+                case 'D' -> line.append(entry.nanos() / 1000);
+                case 'i' -> orDash(entry.headers()[part.index()]);
+                default -> throw new IllegalStateException("Unknown format code: " + part.code());
+            }
+        }
+    }
+
+    private void orDash(String value) {
+        line.append(value == null || value.isEmpty() ? "-" : value);
+    }
+
+    // Время меняется раз в секунду, поэтому строка форматируется один раз на секунду
+    private String time(long millis) {
+        long second = millis / 1000;
+        if (second != timeSecond) {
+            timeSecond = second;
+            timeText = CLF_TIME.format(Instant.ofEpochSecond(second));
+        }
+        return timeText;
+    }
+//parse(String format, List<String> headers):
+//
+//Делит формат на текст и поля; имена заголовков %{Name}i собираются в headers,
+//чтобы поток запроса копировал только нужные значения
+    private static Part[] parse(String format, List<String> headers) {
+        List<Part> parts = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i++);
+            if (c != '%') {
+                text.append(c);
+                continue;
+            }
+            if (i == format.length()) {
+                throw new IllegalArgumentException("Incomplete field at the end of format: " + format);
+            }
+            char code = format.charAt(i++);
+            if (code == '%') {
+                text.append('%');
+                continue;
+            }
+            if (!text.isEmpty()) {
+                parts.add(new Part((char) 0, text.toString(), -1));
+                text.setLength(0);
+            }
+            if (code == '{') {
+                int close = format.indexOf('}', i);
+                if (close == -1 || close + 1 >= format.length() || format.charAt(close + 1) != 'i') {
+                    throw new IllegalArgumentException("Expected %{Name}i in format: " + format);
+                }
+                headers.add(format.substring(i, close).toLowerCase(Locale.ROOT));
+                parts.add(new Part('i', null, headers.size() - 1));
+                i = close + 2;
+            } else if ("htrmUHsbD".indexOf(code) != -1) {
+                parts.add(new Part(code, null, -1));
+            } else {
+                throw new IllegalArgumentException("Unknown field %" + code + " in format: " + format);
+            }
+        }
+        if (!text.isEmpty()) {
+            parts.add(new Part((char) 0, text.toString(), -1));
+        }
+        return parts.toArray(new Part[0]);
+    }
+
+    // code == 0 - текст, иначе поле формата; index - номер заголовка для %{Name}i
+    private record Part(char code, String text, int index) {
+    }
+
+    // Request хранится как есть: его строки (метод, путь) уже созданы и не копируются
+    private record Entry(long time, Request request, int status, long bytes, long nanos, String[] headers) {
+    }
+}
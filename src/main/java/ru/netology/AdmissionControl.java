@@ -0,0 +1,128 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+//AdmissionControl:
+//
+//Защита от перегрузки, общая для обоих движков
+//Соединение или запрос, которому нет места, сразу получает готовый ответ без тела
+//и соединение закрывается; сам запрос при этом не читается и не разбирается:
+//- CONNECTIONS: открыто maxConnections соединений -> 503 сразу после accept()
+//- QUEUE: очередь пула (workQueueCapacity) полна -> 503
+//- CONCURRENCY: выполняется больше запросов, чем допускает ConcurrencyLimit -> 503
+//- RATE_LIMIT: у адреса клиента кончились жетоны RateLimiter -> 429
+//В ответе есть Retry-After, чтобы клиенты не повторяли запрос сразу же
+final class AdmissionControl {
+//Rejection:
+//
+//Причина отказа: код ответа и метка reason для http_rejected_total в Metrics
+    enum Rejection {
+        CONNECTIONS(503, "connections"),
+        QUEUE(503, "queue"),
+        CONCURRENCY(503, "concurrency"),
+        RATE_LIMIT(429, "rate_limit");
+
+        private final int status;
+        private final String label;
+
+        Rejection(int status, String label) {
+            this.status = status;
+            this.label = label;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getLabel() {
+            return label;
+        }
+    }
+
+    private final Metrics metrics;
+    private final byte[] serviceUnavailable;
+    private final byte[] tooManyRequests;
+    // null - ограничение выключено
+    private final RateLimiter rateLimiter;
+    private final ConcurrencyLimit concurrencyLimit;
+
+    AdmissionControl(ServerConfig config, Metrics metrics) {
+        this.metrics = metrics;
+        this.serviceUnavailable = response("503 Service Unavailable", config.getRetryAfter());
+        // Жетон появится через 1 / rate секунд, но Retry-After - целое число секунд
+        this.tooManyRequests = response("429 Too Many Requests",
+                config.getRateLimit() > 0 ? (int) Math.ceil(1 / config.getRateLimit()) : config.getRetryAfter());
+        this.rateLimiter = config.getRateLimit() > 0
+                ? new RateLimiter(config.getRateLimit(), config.getRateLimitBurst())
+                : null;
+        if (config.getConcurrencyLatencyThreshold() > 0) {
+            int initial = config.isVirtualThreads() ? ServerConfig.DEFAULT_THREADS : config.getThreads();
+            int max = Math.max(initial, Math.min(config.getMaxConnections(), ServerConfig.DEFAULT_VIRTUAL_MAX_CONNECTIONS));
+            concurrencyLimit = new ConcurrencyLimit(initial, max, config.getConcurrencyLatencyThreshold() * 1_000_000L);
+            metrics.setConcurrencyLimit(concurrencyLimit::getLimit);
+        } else {
+            concurrencyLimit = null;
+        }
+    }
+
+    private static byte[] response(String status, int retryAfter) {
+        return ("HTTP/1.1 " + status + "\r\n" +
+                "Retry-After: " + Math.max(1, retryAfter) + "\r\n" +
+                "Content-Length: 0\r\n" +
+                "Connection: close\r\n" +
+                "\r\n").getBytes(US_ASCII);
+    }
+//admit(String remoteAddress):
+//
+//Решение по запросу с разобранной головой: null - запрос допущен,
+//и после ответа нужно вызвать release() с моментом допуска
+    Rejection admit(String remoteAddress) {
+        if (rateLimiter != null && remoteAddress != null && !rateLimiter.tryAcquire(remoteAddress, System.nanoTime())) {
+            return Rejection.RATE_LIMIT;
+        }
+        if (concurrencyLimit != null && !concurrencyLimit.tryAcquire()) {
+            return Rejection.CONCURRENCY;
+        }
+        return null;
+    }
+
+    // started - System.nanoTime() в момент admit()
+    void release(long started) {
+        if (concurrencyLimit != null) {
+            concurrencyLimit.release(started, System.nanoTime(), false);
+        }
+    }
+
+    // Допущенный запрос не попал в очередь пула; ответ для него дает reject(QUEUE)
+    void dropped(long started) {
+        if (concurrencyLimit != null) {
+            concurrencyLimit.release(started, System.nanoTime(), true);
+        }
+    }
+
+    // Готовый ответ об отказе (после него соединение закрывается); отказ учитывается в Metrics
+    byte[] reject(Rejection rejection) {
+        metrics.rejected(rejection);
+        byte[] response = rejection.getStatus() == 429 ? tooManyRequests : serviceUnavailable;
+        metrics.responded(rejection.getStatus(), response.length);
+        return response;
+    }
+//reject(OutputStream out, Rejection rejection) и reject(SocketChannel channel, Rejection rejection):
+//
+//Быстрый отказ только что принятому соединению: ответ пишется, не дожидаясь запроса
+//Несколько десятков байт всегда помещаются в пустой буфер отправки сокета,
+//поэтому запись не блокирует поток accept'а; закрывает соединение вызывающий
+    void reject(OutputStream out, Rejection rejection) throws IOException {
+        out.write(reject(rejection));
+        out.flush();
+    }
+
+    void reject(SocketChannel channel, Rejection rejection) throws IOException {
+        channel.write(ByteBuffer.wrap(reject(rejection)));
+    }
+}
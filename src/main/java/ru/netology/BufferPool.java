@@ -0,0 +1,35 @@
+package ru.netology;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+//BufferPool:
+//
+//Общий пул direct ByteBuffer'ов одного размера для записи ответов в сокет
+//Запись из direct буфера не требует копирования: для буфера в куче NIO сам копирует данные
+//во временный direct буфер на каждый write() и держит такие буферы в кэше каждого потока
+//без ограничения размера
+//Буферы берут одни потоки (обработчики), а возвращают другие (event loop'ы), поэтому пул
+//общий, а не по потоку: ArrayBlockingQueue на MAX_POOLED мест, без выделения памяти
+//на acquire()/release(); лишние буферы отдаются сборщику мусора
+final class BufferPool {
+    static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED = 256;
+    private static final ArrayBlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private BufferPool() {
+    }
+
+    // Пустой буфер BUFFER_SIZE байт, готовый к записи
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = POOL.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    // Буфер больше не используется вызывающим
+    static void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == BUFFER_SIZE) {
+            POOL.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ru.netology;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+//ChunkedInputStream:
+//
+//Тело запроса с Transfer-Encoding: chunked (RFC 9112 7.1)
+//Отдает только данные чанков: размеры, расширения и трейлеры пропускаются
+//Читает из in ровно до конца тела, поэтому следующий запрос соединения не задевается
+final class ChunkedInputStream extends InputStream {
+    private static final int MAX_LINE_LENGTH = 4 * 1024;
+    private static final int MAX_TRAILER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private long chunkRemaining;
+    private boolean started;
+    private boolean finished;
+
+    ChunkedInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        if (finished) return -1;
+        if (len == 0) return 0;
+        if (chunkRemaining == 0) {
+            nextChunk();
+            if (finished) return -1;
+        }
+        int n = in.read(bytes, off, (int) Math.min(len, chunkRemaining));
+        if (n == -1) {
+            throw new EOFException("Connection closed in the middle of a chunk");
+        }
+        chunkRemaining -= n;
+        return n;
+    }
+//close():
+//
+//Дочитывает тело до конца, чтобы соединение было готово к следующему запросу
+    @Override
+    public void close() throws IOException {
+        byte[] skip = new byte[8 * 1024];
+        while (read(skip, 0, skip.length) != -1) {
+            // пропускаем
+        }
+    }
+
+    private void nextChunk() throws IOException {
+        if (started && !readLine(MAX_LINE_LENGTH).isEmpty()) {
+            throw new RequestParseException(400, "Invalid chunk terminator");
+        }
+        started = true;
+        String line = readLine(MAX_LINE_LENGTH);
+        byte[] bytes = line.getBytes(ISO_8859_1);
+        chunkRemaining = chunkSize(bytes, 0, bytes.length);
+        if (chunkRemaining == 0) {
+            // Трейлеры не используются: пропускаем их до пустой строки
+            int trailers = 0;
+            String trailer;
+            while (!(trailer = readLine(MAX_TRAILER_SIZE)).isEmpty()) {
+                trailers += trailer.length();
+                if (trailers > MAX_TRAILER_SIZE) {
+                    throw new RequestParseException(431, "Chunked trailer section is too large");
+                }
+            }
+            finished = true;
+        }
+    }
+
+    private String readLine(int limit) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Connection closed in the middle of a chunked body");
+            }
+            if (line.length() == limit) {
+                throw new RequestParseException(400, "Chunk line is too long");
+            }
+            line.append((char) b);
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+//chunkSize(byte[] data, int from, int to):
+//
+//Размер чанка из строки "1a3f;ext=value" (без \r\n)
+    static long chunkSize(byte[] data, int from, int to) throws RequestParseException {
+        long size = 0;
+        int digits = 0;
+        int i = from;
+        for (; i < to; i++) {
+            int digit = Character.digit(data[i], 16);
+            if (digit < 0) break;
+            if (++digits > 15) {
+                throw new RequestParseException(413, "Chunk is too large");
+            }
+            size = (size << 4) | digit;
+        }
+        while (i < to && (data[i] == ' ' || data[i] == '\t')) i++;
+        if (digits == 0 || (i < to && data[i] != ';')) {
+            throw new RequestParseException(400, "Invalid chunk size");
+        }
+        return size;
+    }
+}
@@ -0,0 +1,138 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//ChunkedOutputStream:
+//
+//Тело ответа с Transfer-Encoding: chunked, размер которого заранее неизвестен
+//Создается через Server.sendChunked() после записи заголовков
+//Записанное копится до chunkSize байт и уходит одним чанком
+//flush() сразу отправляет накопленное клиенту (в том числе из NIO-движка)
+//close() завершает тело нулевым чанком и трейлерами, объявленными в sendChunked()
+//Клиенту HTTP/1.0 тело пишется как есть, а конец ответа обозначается закрытием соединения
+public class ChunkedOutputStream extends OutputStream {
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final OutputStream out;
+    private final boolean chunked;
+    private final List<String> declaredTrailers;
+    private final Map<String, String> trailers = new LinkedHashMap<>();
+    private final byte[] chunk;
+    private int count;
+    private boolean closed;
+
+    ChunkedOutputStream(OutputStream out, boolean chunked, int chunkSize, String... trailerNames) {
+        this.out = out;
+        this.chunked = chunked;
+        this.declaredTrailers = Arrays.stream(trailerNames).map(name -> name.toLowerCase(Locale.ROOT)).toList();
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == chunk.length) {
+            writeChunk();
+        }
+        chunk[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        ensureOpen();
+        if (len >= chunk.length) {
+            // Большой кусок уходит отдельным чанком без копирования в буфер
+            writeChunk();
+            writeChunk(bytes, off, len);
+            return;
+        }
+        if (len > chunk.length - count) {
+            writeChunk();
+        }
+        System.arraycopy(bytes, off, chunk, count, len);
+        count += len;
+    }
+
+    public void write(String text) throws IOException {
+        write(text.getBytes(UTF_8));
+    }
+//flush():
+//
+//Отправляет клиенту все, что уже записано, не дожидаясь конца ответа
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeChunk();
+        if (out instanceof ResponseStream response) {
+            response.push();
+        } else {
+            out.flush();
+        }
+    }
+//setTrailer(String name, String value):
+//
+//Значение трейлера, отправляемого после последнего чанка (например, контрольная сумма
+//тела); имя должно быть объявлено в Server.sendChunked()
+//Клиенту HTTP/1.0 трейлеры не отправляются
+    public void setTrailer(String name, String value) {
+        if (!declaredTrailers.contains(name.toLowerCase(Locale.ROOT))) {
+            throw new IllegalArgumentException("Trailer is not declared: " + name);
+        }
+        if (closed) {
+            throw new IllegalStateException("Response body is already complete");
+        }
+        trailers.put(name, value);
+    }
+//close():
+//
+//Завершает тело ответа; сам поток соединения не закрывается
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        writeChunk();
+        closed = true;
+        if (chunked) {
+            StringBuilder last = new StringBuilder("0\r\n");
+            for (Map.Entry<String, String> trailer : trailers.entrySet()) {
+                last.append(trailer.getKey()).append(": ").append(trailer.getValue()).append("\r\n");
+            }
+            last.append("\r\n");
+            out.write(last.toString().getBytes(US_ASCII));
+        }
+        out.flush();
+    }
+
+    private void writeChunk() throws IOException {
+        if (count > 0) {
+            writeChunk(chunk, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeChunk(byte[] bytes, int off, int len) throws IOException {
+        if (chunked) {
+            out.write(Integer.toHexString(len).getBytes(US_ASCII));
+            out.write(CRLF);
+            out.write(bytes, off, len);
+            out.write(CRLF);
+        } else {
+            out.write(bytes, off, len);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Response body is already complete");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ru.netology;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//ConcurrencyLimit:
+//
+//Адаптивный предел числа одновременно выполняемых запросов по схеме AIMD, как окно TCP:
+//- запрос выполнился быстрее latencyThreshold, а предел почти выбран -> limit += 1 / limit
+//  (примерно +1 за каждые limit успешных запросов)
+//- запрос выполнялся дольше или его не приняла очередь пула -> limit *= 0.9,
+//  но не чаще одного раза на "поколение" запросов: медленные запросы, начатые до предыдущего снижения, предел повторно не снижают,
+//  иначе одна волна задержек обрушила бы его до минимума
+//Задержка считается от допуска запроса до конца ответа, в NIO-движке вместе с ожиданием
+//в очереди пула, поэтому перегрузка пула снижает предел так же, как медленный обработчик
+final class ConcurrencyLimit {
+    private static final double BACKOFF = 0.9;
+    private static final int MIN_LIMIT = 1;
+
+    private final int maxLimit;
+    private final long latencyThreshold;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // double в битах long, чтобы менять его без блокировки
+    private final AtomicLong limit;
+    private volatile long lastDecrease;
+
+    ConcurrencyLimit(int initialLimit, int maxLimit, long latencyThresholdNanos) {
+        this.maxLimit = maxLimit;
+        this.latencyThreshold = latencyThresholdNanos;
+        this.limit = new AtomicLong(Double.doubleToLongBits(Math.max(MIN_LIMIT, Math.min(initialLimit, maxLimit))));
+        this.lastDecrease = System.nanoTime();
+    }
+
+    boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > getLimit()) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+//release(long started, long now, boolean dropped):
+//
+//Запрос, допущенный tryAcquire() в момент started, завершен в момент now (System.nanoTime())
+//dropped - запрос так и не был выполнен (пул отказал), это сигнал перегрузки
+    void release(long started, long now, boolean dropped) {
+        int current = inFlight.getAndDecrement();
+        if (dropped || now - started > latencyThreshold) {
+            if (started - lastDecrease > 0) {
+                lastDecrease = now;
+                update(-1);
+            }
+        } else if (current * 2 >= getLimit()) {
+            update(1);
+        }
+    }
+
+    int getLimit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    // direction > 0 - аддитивное увеличение, иначе мультипликативное снижение
+    private void update(int direction) {
+        while (true) {
+            long bits = limit.get();
+            double current = Double.longBitsToDouble(bits);
+            double next = direction > 0
+                    ? Math.min(maxLimit, current + 1 / current)
+                    : Math.max(MIN_LIMIT, current * BACKOFF);
+            if (next == current || limit.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package ru.netology;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+//ConnectionInput:
+//
+//Входной поток блокирующего соединения с одним переиспользуемым байтовым буфером
+//readHead() дочитывает из сокета, пока RequestParser не разберет голову запроса
+//Байты после головы (тело и конвейерные запросы) остаются в буфере
+//Все прочитанные из сокета байты и время разбора голов учитываются в Metrics
+final class ConnectionInput {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final InputStream in;
+    private final RequestParser parser;
+    private final Metrics metrics;
+    private final int maxBufferSize;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start;
+    private int end;
+
+    ConnectionInput(InputStream in, RequestParser parser, int maxHeaderSize, Metrics metrics) {
+        this.in = in;
+        this.parser = parser;
+        this.metrics = metrics;
+        this.maxBufferSize = Math.max(INITIAL_BUFFER_SIZE, maxHeaderSize);
+    }
+//readHead():
+//
+//Возвращает голову следующего запроса или null, если клиент закрыл соединение между запросами
+//Пустые строки перед request line пропускаются (RFC 9112 2.2)
+    RequestHead readHead() throws IOException {
+        while (true) {
+            if (!parser.isInProgress()) {
+                while (start < end && (buffer[start] == '\r' || buffer[start] == '\n')) {
+                    start++;
+                }
+            }
+            if (start < end) {
+                int length = parser.parse(buffer, start, end);
+                if (length >= 0) {
+                    RequestHead head = parser.finish(buffer, start, length);
+                    metrics.parsed(parser.getLastParseNanos());
+                    start += length;
+                    return head;
+                }
+            }
+            if (!fill()) {
+                if (start == end && !parser.isInProgress()) {
+                    return null;
+                }
+                parser.reset();
+                throw new EOFException("Connection closed in the middle of a request");
+            }
+        }
+    }
+//awaitData():
+//
+//Ждет, пока в буфере появятся непрочитанные байты; false - клиент закрыл соединение
+//Server ждет так следующий запрос keep-alive с отдельным (коротким) таймаутом сокета
+    boolean awaitData() throws IOException {
+        return start < end || fill();
+    }
+//openBody(long length):
+//
+//Поток ровно из length байт тела: сначала из буфера, затем из сокета
+//Обработчик читает тело прямо из соединения, не копируя его целиком в память
+//Непрочитанный остаток надо пропустить через close(), иначе он попадет в следующий запрос
+    InputStream openBody(long length) {
+        return new BodyStream(length);
+    }
+//openChunkedBody():
+//
+//То же для Transfer-Encoding: chunked; конец тела определяет ChunkedInputStream
+    InputStream openChunkedBody() {
+        return new ChunkedInputStream(new BodyStream(Long.MAX_VALUE));
+    }
+//skip(long length):
+//
+//Пропускает тело, которое никто не будет читать
+    void skip(long length) throws IOException {
+        long buffered = Math.min(length, end - start);
+        start += (int) buffered;
+        long remaining = length - buffered;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Connection closed in the middle of a request body");
+                }
+                skipped = 1;
+            }
+            metrics.bytesIn(skipped);
+            remaining -= skipped;
+        }
+    }
+
+    private final class BodyStream extends InputStream {
+        private long remaining;
+
+        BodyStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) return -1;
+            if (start == end && !fill()) {
+                throw new EOFException("Connection closed in the middle of a request body");
+            }
+            remaining--;
+            return buffer[start++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (remaining == 0) return -1;
+            if (len == 0) return 0;
+            int max = (int) Math.min(len, remaining);
+            int n;
+            if (start < end) {
+                n = Math.min(max, end - start);
+                System.arraycopy(buffer, start, bytes, off, n);
+                start += n;
+            } else {
+                n = in.read(bytes, off, max);
+                if (n == -1) {
+                    throw new EOFException("Connection closed in the middle of a request body");
+                }
+                metrics.bytesIn(n);
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, end - start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (remaining > 0) {
+                ConnectionInput.this.skip(remaining);
+                remaining = 0;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (start == end) {
+            start = 0;
+            end = 0;
+        } else if (end == buffer.length) {
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            } else {
+                byte[] bigger = new byte[Math.min(buffer.length * 2, maxBufferSize)];
+                if (bigger.length == buffer.length) {
+                    throw new RequestParseException(431, "Request header is too large");
+                }
+                System.arraycopy(buffer, 0, bigger, 0, end);
+                buffer = bigger;
+            }
+        }
+        int n = in.read(buffer, end, buffer.length - end);
+        if (n == -1) {
+            return false;
+        }
+        end += n;
+        metrics.bytesIn(n);
+        return true;
+    }
+}
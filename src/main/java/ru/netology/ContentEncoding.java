@@ -0,0 +1,83 @@
+package ru.netology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+//ContentEncoding:
+//
+//Согласование сжатия по Accept-Encoding и сжатие gzip
+//В JDK нет кодировщика brotli, поэтому br отдается только из готовых файлов *.br на диске
+public final class ContentEncoding {
+    public static final String GZIP = "gzip";
+    public static final String BROTLI = "br";
+    // Статика сжимается один раз, поэтому максимально; динамика - на каждый ответ
+    static final int STATIC_LEVEL = Deflater.BEST_COMPRESSION;
+    static final int DYNAMIC_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    private ContentEncoding() {
+    }
+//accepts(String acceptEncoding, String coding):
+//
+//true, если клиент принимает coding с q > 0
+//Явное упоминание coding важнее "*" (RFC 9110 12.5.3)
+    public static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) return false;
+        double wildcard = 0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String name = params[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals(coding)) {
+                return quality > 0;
+            }
+            if (name.equals("*")) {
+                wildcard = quality;
+            }
+        }
+        return wildcard > 0;
+    }
+//isCompressible(String mimeType):
+//
+//Текст, JavaScript, JSON, XML и SVG хорошо сжимаются; PNG, JPEG и т.п. уже сжаты
+    public static boolean isCompressible(String mimeType) {
+        if (mimeType == null) return false;
+        String type = mimeType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.startsWith("application/javascript")
+                || type.startsWith("application/json")
+                || type.startsWith("application/xml")
+                || type.startsWith("image/svg+xml");
+    }
+
+    public static byte[] gzip(byte[] data, int level) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 3));
+        try (GZIPOutputStream gzip = new LeveledGzipOutputStream(compressed, level)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    // GZIPOutputStream не дает задать уровень сжатия в конструкторе
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(ByteArrayOutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+}
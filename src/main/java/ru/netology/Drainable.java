@@ -0,0 +1,13 @@
+package ru.netology;
+
+//drain(long deadline):
+//
+//Компонент, который сам обслуживает соединения, забранные у сервера через ResponseStream.detach()
+//(long-poll, SSE): сервер о них не знает и дождаться их не может
+//Server.stop() вызывает drain(), когда новые соединения уже не принимаются: компонент должен
+//ответить ожидающим клиентам, закрыть их соединения и вернуться не позже deadline (System.nanoTime())
+//Регистрируется через Server.addDrainable()
+@FunctionalInterface
+public interface Drainable {
+    void drain(long deadline) throws InterruptedException;
+}
@@ -0,0 +1,116 @@
+package ru.netology;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+//FilePart:
+//
+//Файл из multipart/form-data тела
+//Небольшие файлы хранятся в памяти, большие MultipartParser сразу пишет во временный файл
+//Содержимое читается лениво через getInputStream(); getBytes() загружает его целиком
+//Временный файл удаляется сервером после обработки запроса, если его не забрали через moveTo()
+public class FilePart {
+    private final String name;
+    private final String filename;
+    private final String contentType;
+    private final long size;
+    private final byte[] content;
+    private Path file;
+    private boolean moved;
+
+    FilePart(String name, String filename, String contentType, byte[] content) {
+        this.name = name;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.size = content.length;
+        this.content = content;
+        this.file = null;
+    }
+
+    FilePart(String name, String filename, String contentType, Path file, long size) {
+        this.name = name;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.size = size;
+        this.content = null;
+        this.file = file;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Имя файла, как его прислал браузер (может быть пустым)
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isInMemory() {
+        return content != null;
+    }
+
+    // Временный файл с содержимым или null, если часть хранится в памяти
+    public Path getPath() {
+        return file;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        return Files.newInputStream(file);
+    }
+
+    public byte[] getBytes() throws IOException {
+        if (content != null) {
+            return content;
+        }
+        return Files.readAllBytes(file);
+    }
+//moveTo(Path target):
+//
+//Сохраняет содержимое в target; временный файл переносится без копирования
+//и после этого не удаляется сервером
+    public void moveTo(Path target) throws IOException {
+        if (content != null) {
+            Files.write(target, content);
+            return;
+        }
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        file = target;
+        moved = true;
+    }
+
+    // Вызывается сервером после обработки запроса
+    void delete() {
+        if (file == null || moved) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Can't delete temporary file " + file + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FilePart{" +
+                "name='" + name + '\'' +
+                ", filename='" + filename + '\'' +
+                ", contentType='" + contentType + '\'' +
+                ", size=" + size +
+                (file != null ? ", file=" + file : "") +
+                '}';
+    }
+}
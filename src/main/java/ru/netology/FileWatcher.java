@@ -0,0 +1,92 @@
+package ru.netology;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+//FileWatcher:
+//
+//Следит за папкой (и всеми вложенными) через WatchService в фоновом daemon-потоке
+//Каждому слушателю передает абсолютный путь созданного, измененного или удаленного файла
+//Если события потерялись (OVERFLOW), слушатель получает путь самой папки:
+//это означает "могло измениться что угодно внутри"
+public class FileWatcher implements Closeable {
+    private final Path root;
+    private final WatchService watchService;
+    private final List<Consumer<Path>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+
+    public FileWatcher(Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.watchService = this.root.getFileSystem().newWatchService();
+        registerAll(this.root);
+        this.thread = new Thread(this::run, "file-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public void addListener(Consumer<Path> listener) {
+        listeners.add(listener);
+    }
+
+    private void registerAll(Path dir) throws IOException {
+        try (Stream<Path> dirs = Files.walk(dir)) {
+            for (Path subdir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                subdir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        notifyListeners(dir);
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        registerAll(changed);
+                    }
+                    notifyListeners(changed);
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // close() или остановка JVM
+        } catch (IOException e) {
+            System.err.println("File watcher error: " + e.getMessage());
+        }
+    }
+
+    private void notifyListeners(Path changed) {
+        for (Consumer<Path> listener : listeners) {
+            listener.accept(changed);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,86 @@
+package ru.netology;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//LatencyHistogram:
+//
+//Гистограмма длительностей в наносекундах в духе HdrHistogram: диапазон каждой степени
+//двойки делится на 32 равные корзины, поэтому любое значение от 1 нс до сотен лет
+//хранится с относительной ошибкой не больше 1/32 (~3%) в фиксированных ~1900 счетчиках
+//record() - одна операция getAndIncrement без блокировок и выделения памяти
+//Квантили считаются только при чтении (для /metrics), проходом по корзинам
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.getAndIncrement(index(nanos));
+        count.increment();
+        sum.add(nanos);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getSum() {
+        return sum.sum();
+    }
+//getQuantile(double quantile):
+//
+//Верхняя граница корзины, в которую попадает квантиль (0.5, 0.99, ...), или 0, если записей нет
+//Счетчики читаются без остановки записи, поэтому результат приблизительный
+    long getQuantile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    // Сколько записей не больше nanos (с точностью до корзины) - для распределения в отчете LoadGenerator
+    long countAtMost(long nanos) {
+        int last = index(Math.max(0, nanos));
+        long total = 0;
+        for (int i = 0; i <= last; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    // Значения меньше 32 лежат каждое в своей корзине, дальше - по 32 корзины на степень двойки
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,389 @@
+package ru.netology;
+
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityProducer;
+import org.apache.hc.core5.http.nio.entity.DiscardingEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.nio.support.BasicResponseConsumer;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//LoadGenerator:
+//
+//Нагрузочный тест сервера: повторяет запросы из JSONL файла (формат строки - см. LoadSpec)
+//по кругу с постоянной частотой через асинхронный HttpClient 5 с пулом соединений
+//Нагрузка открытая (open loop): запрос i отправляется в момент start + i / rate, не дожидаясь
+//ответов на предыдущие, а задержка считается от этого запланированного момента, а не от
+//фактической отправки. Поэтому если сервер (или пул соединений) тормозит, ожидание в очереди
+//попадает в задержку, а не прячется за паузой клиента (coordinated omission)
+//Запрос сверх maxInFlight тоже ждет с запланированного момента, а не выбрасывается
+//Результат - счетчики ответов и ошибок, перцентили и распределение задержек (LatencyHistogram)
+//
+//Запуск (classpath проекта вместе с httpclient5):
+//  java ru.netology.LoadGenerator loadtest/main.jsonl --rate 2000 --duration 30 --connections 64
+public class LoadGenerator {
+    public static final String DEFAULT_URL = "http://localhost:9999";
+    public static final int DEFAULT_RATE = 1000;
+    public static final long DEFAULT_DURATION = 30;
+    public static final long DEFAULT_WARMUP = 5;
+    public static final int DEFAULT_CONNECTIONS = 64;
+    public static final long DEFAULT_TIMEOUT = 10;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10_000;
+    private static final String USAGE = "Usage: LoadGenerator <requests.jsonl> [--url " + DEFAULT_URL + "]" +
+            " [--rate " + DEFAULT_RATE + "] [--duration " + DEFAULT_DURATION + "] [--warmup " + DEFAULT_WARMUP + "]" +
+            " [--connections " + DEFAULT_CONNECTIONS + "] [--io-threads N] [--timeout " + DEFAULT_TIMEOUT + "]" +
+            " [--max-in-flight " + DEFAULT_MAX_IN_FLIGHT + "]";
+    private static final int MAX_STATUS = 600;
+    // Границы строк распределения в отчете, мс
+    private static final double[] DISTRIBUTION = {0.5, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    private static final double[] PERCENTILES = {0.5, 0.75, 0.9, 0.99, 0.999, 0.9999};
+
+    private final Options options;
+    private final HttpHost host;
+    private final String basePath;
+    private final List<LoadSpec> specs;
+    private final ContentType[] contentTypes;
+    // Свободные места для запросов в полете (maxInFlight)
+    private final Semaphore slots;
+    private long maxSendLag;
+
+    public LoadGenerator(Options options) throws IOException {
+        this.options = options;
+        this.slots = new Semaphore(options.maxInFlight());
+        this.host = HttpHost.create(options.url());
+        String path = options.url().getRawPath();
+        this.basePath = path == null || path.equals("/") ? "" : path.replaceAll("/+$", "");
+        this.specs = LoadSpec.read(options.file());
+        this.contentTypes = new ContentType[specs.size()];
+        for (int i = 0; i < contentTypes.length; i++) {
+            String contentType = specs.get(i).getContentType();
+            contentTypes[i] = contentType == null ? null : ContentType.parse(contentType);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LoadGenerator generator;
+        try {
+            generator = new LoadGenerator(Options.parse(args));
+        } catch (IllegalArgumentException e) {
+            // Ошибка в аргументах или в файле запросов (с номером строки)
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        generator.run(System.out);
+    }
+//run(PrintStream out):
+//
+//Прогоняет разогрев и измерение и печатает отчет
+//Результаты разогрева (JIT, кэши и пул соединений сервера) выбрасываются
+//После окончания расписания ждет ответы на отправленные запросы не дольше timeout
+    public void run(PrintStream out) throws InterruptedException {
+        out.printf(Locale.ROOT, "Target %s, %d request specs from %s%n", options.url(), specs.size(), options.file());
+        out.printf(Locale.ROOT, "Rate %d req/s for %d s (+%d s warmup), %d connections%n",
+                options.rate(), options.duration(), options.warmup(), options.connections());
+        CloseableHttpAsyncClient client = createClient();
+        client.start();
+        Phase warmup = new Phase();
+        Phase measured = new Phase();
+        try {
+            schedule(client, warmup, measured);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.timeout() + 1);
+            while (slots.availablePermits() < options.maxInFlight() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            client.close(CloseMode.IMMEDIATE);
+        }
+        report(out, measured);
+    }
+
+    private CloseableHttpAsyncClient createClient() {
+        Timeout timeout = Timeout.ofSeconds(options.timeout());
+        return HttpAsyncClients.custom()
+                .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(options.connections())
+                        .setMaxConnPerRoute(options.connections())
+                        .build())
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(options.ioThreads())
+                        .setTcpNoDelay(true)
+                        .setSoTimeout(timeout)
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(timeout)
+                        .setResponseTimeout(timeout)
+                        .build())
+                // Повтор или переход по редиректу исказили бы задержку одного запроса
+                .disableAutomaticRetries()
+                .disableRedirectHandling()
+                .disableCookieManagement()
+                .build();
+    }
+//schedule(CloseableHttpAsyncClient client, Phase warmup, Phase measured):
+//
+//Отправляет запросы по расписанию start + i * 1e9 / rate наносекунд
+//Поток спит до момента очередного запроса; если он проснулся позже (или отправка заняла время),
+//просроченные запросы уходят сразу один за другим, а отставание попадает в их задержку
+    private void schedule(CloseableHttpAsyncClient client, Phase warmup, Phase measured) throws InterruptedException {
+        long start = System.nanoTime();
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(options.warmup());
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(options.duration());
+        for (long i = 0; ; i++) {
+            long intended = start + i * 1_000_000_000L / options.rate();
+            if (intended >= end) break;
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            maxSendLag = Math.max(maxSendLag, now - intended);
+            int index = (int) (i % specs.size());
+            send(client, index, intended, intended < warmupEnd ? warmup : measured);
+        }
+    }
+
+//send(CloseableHttpAsyncClient client, int index, long intended, Phase phase):
+//
+//maxInFlight ограничивает очередь в пуле HttpClient, если сервер перестал отвечать
+//Сверх него запрос ждет свободного места (расписание при этом стоит), и ожидание входит
+//в его задержку, потому что она считается от intended
+//Не дождавшийся места за timeout запрос считается ошибкой NotSent: молча выбросить его
+//значило бы убрать из статистики как раз самые медленные запросы
+    private void send(CloseableHttpAsyncClient client, int index, long intended, Phase phase) throws InterruptedException {
+        phase.sent.increment();
+        long wait = intended + TimeUnit.SECONDS.toNanos(options.timeout()) - System.nanoTime();
+        if (!slots.tryAcquire(wait, TimeUnit.NANOSECONDS)) {
+            phase.failed("NotSent");
+            return;
+        }
+        LoadSpec spec = specs.get(index);
+        BasicHttpRequest request = new BasicHttpRequest(spec.getMethod(), host, basePath + spec.getTarget());
+        for (Map.Entry<String, String> header : spec.getHeaders().entrySet()) {
+            request.addHeader(header.getKey(), header.getValue());
+        }
+        // Производитель тела хранит позицию чтения, поэтому у каждого запроса свой
+        BasicAsyncEntityProducer body = spec.getBody() == null
+                ? null
+                : new BasicAsyncEntityProducer(spec.getBody(), contentTypes[index]);
+        client.execute(new BasicRequestProducer(request, body),
+                new BasicResponseConsumer<>(new DiscardingEntityConsumer<Void>()),
+                new FutureCallback<Message<HttpResponse, Void>>() {
+                    @Override
+                    public void completed(Message<HttpResponse, Void> response) {
+                        phase.responded(response.getHead().getCode(), System.nanoTime() - intended);
+                        slots.release();
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        phase.failed(e.getClass().getSimpleName());
+                        slots.release();
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        phase.failed("Cancelled");
+                        slots.release();
+                    }
+                });
+    }
+
+    private void report(PrintStream out, Phase phase) {
+        LatencyHistogram latency = phase.latency;
+        long responses = latency.getCount();
+        long errors = phase.errorCount();
+        out.println();
+        out.printf(Locale.ROOT, "Requests:   %d scheduled, %d responses, %d errors, %d unfinished%n",
+                phase.sent.sum(), responses, errors, phase.sent.sum() - responses - errors);
+        out.printf(Locale.ROOT, "Throughput: %.1f responses/s (scheduled %d req/s)%n",
+                responses / (double) options.duration(), options.rate());
+        Map<Integer, Long> statuses = new TreeMap<>();
+        for (int i = 0; i < MAX_STATUS; i++) {
+            long count = phase.statuses[i].sum();
+            if (count > 0) statuses.put(i, count);
+        }
+        out.println("Statuses:   " + statuses);
+        if (errors > 0) {
+            Map<String, Long> byType = new TreeMap<>();
+            phase.errors.forEach((type, count) -> byType.put(type, count.sum()));
+            out.println("Errors:     " + byType);
+        }
+        out.printf(Locale.ROOT, "Send lag:   max %.3f ms behind schedule%n", millis(maxSendLag));
+        if (responses == 0) {
+            return;
+        }
+        out.println();
+        out.println("Latency from scheduled send time, ms (bucket accuracy ~3%):");
+        out.printf(Locale.ROOT, "  mean   %10.3f%n", millis(latency.getSum() / responses));
+        for (double percentile : PERCENTILES) {
+            out.printf(Locale.ROOT, "  p%-5s %10.3f%n", format(percentile * 100), millis(latency.getQuantile(percentile)));
+        }
+        out.printf(Locale.ROOT, "  max    %10.3f%n", millis(latency.getQuantile(1.0)));
+        if (errors > 0) {
+            // Задержки есть только у ответов: без ошибок и таймаутов перцентили лучше, чем было на деле
+            out.printf(Locale.ROOT, "  WARNING: %d requests without a response (errors above) are not in the latency;%n", errors);
+            out.println("           the distribution is truncated and the percentiles are optimistic");
+        }
+        out.println();
+        out.println("Distribution, ms:");
+        long previous = 0;
+        for (double bound : DISTRIBUTION) {
+            long cumulative = latency.countAtMost((long) (bound * 1_000_000));
+            printRow(out, "<= " + format(bound), cumulative - previous, responses);
+            previous = cumulative;
+            // Пустой хвост после самого медленного ответа не печатается
+            if (previous == responses) return;
+        }
+        printRow(out, "> " + format(DISTRIBUTION[DISTRIBUTION.length - 1]), responses - previous, responses);
+    }
+
+    private static void printRow(PrintStream out, String label, long count, long total) {
+        double share = count * 100.0 / total;
+        out.printf(Locale.ROOT, "  %-9s %10d %6.2f%% %s%n", label, count, share, "#".repeat((int) Math.round(share / 2)));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    // 99.9 и 0.5, но 50 и 1000 без ".0"
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    // Счетчики одного этапа (разогрев или измерение); пишутся из потоков HttpClient
+    private static final class Phase {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder sent = new LongAdder();
+        final LongAdder[] statuses = new LongAdder[MAX_STATUS];
+        final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        Phase() {
+            for (int i = 0; i < MAX_STATUS; i++) {
+                statuses[i] = new LongAdder();
+            }
+        }
+
+        void responded(int status, long nanos) {
+            latency.record(nanos);
+            if (status > 0 && status < MAX_STATUS) {
+                statuses[status].increment();
+            }
+        }
+
+        void failed(String type) {
+            errors.computeIfAbsent(type, t -> new LongAdder()).increment();
+        }
+
+        long errorCount() {
+            long total = 0;
+            for (LongAdder count : errors.values()) {
+                total += count.sum();
+            }
+            return total;
+        }
+    }
+//Options:
+//
+//Параметры запуска; duration, warmup и timeout - в секундах
+//parse() разбирает аргументы командной строки: файл и пары --name value
+    public record Options(Path file, URI url, int rate, long duration, long warmup,
+                          int connections, int ioThreads, long timeout, int maxInFlight) {
+        public Options {
+            if (file == null) {
+                throw new IllegalArgumentException("Request file is required");
+            }
+            if (url == null || !"http".equals(url.getScheme()) || url.getHost() == null) {
+                throw new IllegalArgumentException("URL must be http://host[:port]: " + url);
+            }
+            if (rate <= 0) {
+                throw new IllegalArgumentException("Rate must be positive: " + rate);
+            }
+            if (duration <= 0) {
+                throw new IllegalArgumentException("Duration must be positive: " + duration);
+            }
+            if (warmup < 0) {
+                throw new IllegalArgumentException("Warmup must not be negative: " + warmup);
+            }
+            if (connections <= 0) {
+                throw new IllegalArgumentException("Connections must be positive: " + connections);
+            }
+            if (ioThreads <= 0) {
+                throw new IllegalArgumentException("IO threads must be positive: " + ioThreads);
+            }
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+            }
+            if (maxInFlight <= 0) {
+                throw new IllegalArgumentException("Max in flight must be positive: " + maxInFlight);
+            }
+        }
+
+        public static Options parse(String[] args) {
+            Path file = null;
+            URI url = URI.create(DEFAULT_URL);
+            int rate = DEFAULT_RATE;
+            long duration = DEFAULT_DURATION;
+            long warmup = DEFAULT_WARMUP;
+            int connections = DEFAULT_CONNECTIONS;
+            int ioThreads = Runtime.getRuntime().availableProcessors();
+            long timeout = DEFAULT_TIMEOUT;
+            int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    if (file != null) {
+                        throw new IllegalArgumentException("Unexpected argument: " + arg);
+                    }
+                    file = Path.of(arg);
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                try {
+                    switch (arg) {
+                        case "--url" -> url = URI.create(value);
+                        case "--rate" -> rate = Integer.parseInt(value);
+                        case "--duration" -> duration = Long.parseLong(value);
+                        case "--warmup" -> warmup = Long.parseLong(value);
+                        case "--connections" -> connections = Integer.parseInt(value);
+                        case "--io-threads" -> ioThreads = Integer.parseInt(value);
+                        case "--timeout" -> timeout = Long.parseLong(value);
+                        case "--max-in-flight" -> maxInFlight = Integer.parseInt(value);
+                        default -> throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for " + arg + ": " + value);
+                }
+            }
+            return new Options(file, url, rate, duration, warmup, connections, ioThreads, timeout, maxInFlight);
+        }
+    }
+}
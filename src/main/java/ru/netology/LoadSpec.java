@@ -0,0 +1,388 @@
+package ru.netology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//LoadSpec:
+//
+//Один запрос для LoadGenerator, прочитанный из строки JSONL файла
+//Тело (форма, multipart или как есть) собирается в байты один раз при чтении,
+//чтобы во время теста генератор тратил время только на отправку
+//Поля строки:
+//  method    - метод, по умолчанию GET
+//  path      - путь, может уже содержать ?query
+//  query     - объект параметров, дописывается к пути с URL кодированием
+//  headers   - объект заголовков
+//  form      - объект полей, тело application/x-www-form-urlencoded
+//  multipart - массив частей {"name", "value"} или {"name", "filename", "contentType",
+//              "size" (столько детерминированных байт) или "file" (путь к файлу)}
+//  body      - тело как есть (Content-Type берется из headers)
+//Пример: {"method":"POST","path":"/messages","form":{"text":"hello"}}
+final class LoadSpec {
+    private static final String BOUNDARY = "----LoadGeneratorBoundary9x3kQ7bZ";
+
+    private final String method;
+    private final String target;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final String contentType;
+
+    private LoadSpec(String method, String target, Map<String, String> headers, byte[] body, String contentType) {
+        this.method = method;
+        this.target = target;
+        this.headers = headers;
+        this.body = body;
+        this.contentType = contentType;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    // Путь вместе с query
+    String getTarget() {
+        return target;
+    }
+
+    Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    // null - запрос без тела
+    byte[] getBody() {
+        return body;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+//read(Path file):
+//
+//Читает все запросы из JSONL файла; пустые строки и строки, начинающиеся с #, пропускаются
+//Ошибка формата - IllegalArgumentException с номером строки
+    static List<LoadSpec> read(Path file) throws IOException {
+        List<LoadSpec> specs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file, UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                specs.add(parse(line, file.toAbsolutePath().getParent()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(file + ":" + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        if (specs.isEmpty()) {
+            throw new IllegalArgumentException(file + ": no requests");
+        }
+        return specs;
+    }
+
+    // baseDir - откуда считаются относительные пути "file" в multipart
+    static LoadSpec parse(String line, Path baseDir) throws IOException {
+        Map<String, Object> json = object(new JsonReader(line).readDocument(), "line");
+        String method = string(json.getOrDefault("method", "GET"), "method").toUpperCase();
+        String target = string(json.get("path"), "path");
+        if (!target.startsWith("/")) {
+            throw new IllegalArgumentException("path must start with /: " + target);
+        }
+        if (json.containsKey("query")) {
+            String query = urlencoded(object(json.get("query"), "query"));
+            if (!query.isEmpty()) {
+                target += (target.indexOf('?') == -1 ? "?" : "&") + query;
+            }
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (json.containsKey("headers")) {
+            for (Map.Entry<String, Object> header : object(json.get("headers"), "headers").entrySet()) {
+                headers.put(header.getKey(), string(header.getValue(), "headers." + header.getKey()));
+            }
+        }
+        String contentType = removeContentType(headers);
+        byte[] body = null;
+        if (json.containsKey("form")) {
+            body = urlencoded(object(json.get("form"), "form")).getBytes(UTF_8);
+            contentType = "application/x-www-form-urlencoded";
+        } else if (json.containsKey("multipart")) {
+            body = multipart(list(json.get("multipart"), "multipart"), baseDir);
+            contentType = "multipart/form-data; boundary=" + BOUNDARY;
+        } else if (json.containsKey("body")) {
+            body = string(json.get("body"), "body").getBytes(UTF_8);
+            if (contentType == null) {
+                contentType = "text/plain; charset=utf-8";
+            }
+        }
+        return new LoadSpec(method, target, headers, body, contentType);
+    }
+
+    // Content-Type задается вместе с телом, поэтому вынимается из обычных заголовков
+    private static String removeContentType(Map<String, String> headers) {
+        for (String name : headers.keySet()) {
+            if (name.equalsIgnoreCase("content-type")) {
+                return headers.remove(name);
+            }
+        }
+        return null;
+    }
+
+    private static String urlencoded(Map<String, Object> params) {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            if (!result.isEmpty()) {
+                result.append('&');
+            }
+            result.append(URLEncoder.encode(param.getKey(), UTF_8))
+                    .append('=')
+                    .append(URLEncoder.encode(scalar(param.getValue(), param.getKey()), UTF_8));
+        }
+        return result.toString();
+    }
+
+    private static byte[] multipart(List<Object> parts, Path baseDir) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (Object item : parts) {
+            Map<String, Object> part = object(item, "multipart part");
+            String name = string(part.get("name"), "multipart.name");
+            body.writeBytes(("--" + BOUNDARY + "\r\n").getBytes(UTF_8));
+            if (part.containsKey("filename") || part.containsKey("file") || part.containsKey("size")) {
+                String filename = part.containsKey("filename")
+                        ? string(part.get("filename"), "multipart.filename")
+                        : part.containsKey("file")
+                        ? Path.of(string(part.get("file"), "multipart.file")).getFileName().toString()
+                        : name + ".bin";
+                String type = string(part.getOrDefault("contentType", "application/octet-stream"),
+                        "multipart.contentType");
+                body.writeBytes(("Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" +
+                        filename + "\"\r\nContent-Type: " + type + "\r\n\r\n").getBytes(UTF_8));
+                if (part.containsKey("file")) {
+                    body.writeBytes(Files.readAllBytes(baseDir.resolve(string(part.get("file"), "multipart.file"))));
+                } else {
+                    body.writeBytes(content(number(part.getOrDefault("size", 0L), "multipart.size")));
+                }
+            } else {
+                body.writeBytes(("Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" +
+                        scalar(part.get("value"), "multipart.value")).getBytes(UTF_8));
+            }
+            body.writeBytes("\r\n".getBytes(UTF_8));
+        }
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(UTF_8));
+        return body.toByteArray();
+    }
+
+    // Одинаковые от запуска к запуску байты, чтобы тесты были воспроизводимыми
+    private static byte[] content(long size) {
+        if (size < 0 || size > Integer.MAX_VALUE - 1024) {
+            throw new IllegalArgumentException("multipart.size out of range: " + size);
+        }
+        byte[] content = new byte[(int) size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> object(Object value, String field) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException(field + " must be an object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Object value, String field) {
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException(field + " must be an array");
+        }
+        return (List<Object>) value;
+    }
+
+    private static String string(Object value, String field) {
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(field + " must be a string");
+        }
+        return (String) value;
+    }
+
+    private static long number(Object value, String field) {
+        if (!(value instanceof Long)) {
+            throw new IllegalArgumentException(field + " must be an integer");
+        }
+        return (Long) value;
+    }
+
+    // Значения параметров могут быть строками, числами или true/false
+    private static String scalar(Object value, String field) {
+        if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return String.valueOf(value);
+        }
+        throw new IllegalArgumentException(field + " must be a string, number or boolean");
+    }
+//JsonReader:
+//
+//Минимальный разбор JSON для одной строки спецификации, без внешних библиотек
+//Объекты - LinkedHashMap (порядок полей сохраняется), массивы - ArrayList,
+//целые числа - Long, дробные - Double
+    private static final class JsonReader {
+        private final String text;
+        private int pos;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        Object readDocument() {
+            Object value = readValue();
+            skipWhitespace();
+            if (pos != text.length()) {
+                throw error("unexpected data after JSON value");
+            }
+            return value;
+        }
+
+        private Object readValue() {
+            skipWhitespace();
+            if (pos == text.length()) {
+                throw error("unexpected end of line");
+            }
+            char c = text.charAt(pos);
+            return switch (c) {
+                case '{' -> readObject();
+                case '[' -> readArray();
+                case '"' -> readString();
+                case 't' -> literal("true", Boolean.TRUE);
+                case 'f' -> literal("false", Boolean.FALSE);
+                case 'n' -> literal("null", null);
+                default -> {
+                    if (c == '-' || (c >= '0' && c <= '9')) yield readNumber();
+                    throw error("unexpected character '" + c + "'");
+                }
+            };
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (consume('}')) return result;
+            do {
+                skipWhitespace();
+                if (pos == text.length() || text.charAt(pos) != '"') {
+                    throw error("expected field name");
+                }
+                String name = readString();
+                skipWhitespace();
+                expect(':');
+                result.put(name, readValue());
+                skipWhitespace();
+            } while (consume(','));
+            expect('}');
+            return result;
+        }
+
+        private List<Object> readArray() {
+            List<Object> result = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (consume(']')) return result;
+            do {
+                result.add(readValue());
+                skipWhitespace();
+            } while (consume(','));
+            expect(']');
+            return result;
+        }
+
+        private String readString() {
+            StringBuilder result = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return result.toString();
+                }
+                if (c != '\\') {
+                    result.append(c);
+                    continue;
+                }
+                if (pos == text.length()) break;
+                char escape = text.charAt(pos++);
+                switch (escape) {
+                    case '"', '\\', '/' -> result.append(escape);
+                    case 'b' -> result.append('\b');
+                    case 'f' -> result.append('\f');
+                    case 'n' -> result.append('\n');
+                    case 'r' -> result.append('\r');
+                    case 't' -> result.append('\t');
+                    case 'u' -> {
+                        if (pos + 4 > text.length()) throw error("bad \\u escape");
+                        try {
+                            result.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("bad \\u escape");
+                        }
+                        pos += 4;
+                    }
+                    default -> throw error("bad escape \\" + escape);
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private Object readNumber() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) != -1) {
+                pos++;
+            }
+            String number = text.substring(start, pos);
+            try {
+                if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+                    return Long.parseLong(number);
+                }
+                return Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                throw error("bad number " + number);
+            }
+        }
+
+        private Object literal(String word, Object value) {
+            if (!text.startsWith(word, pos)) {
+                throw error("unexpected token");
+            }
+            pos += word.length();
+            return value;
+        }
+
+        private boolean consume(char c) {
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw error("expected '" + c + "'");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (pos + 1));
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package ru.netology;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.Map;
@@ -10,20 +11,49 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 //main():
 //
 //Создает и настраивает сервер
-//Регистрирует обработчики для статических файлов
+//Первый аргумент командной строки (blocking или nio) выбирает движок,
+//второй (virtual) включает виртуальные потоки
+//Регистрирует обработчик статических файлов для всей папки public
 //Запускает сервер и обрабатывает исключения
 //Система работает по принципу: получение запроса -> парсинг ->
 // поиск обработчика -> обработка -> отправка ответа, с полной поддержкой всех типов HTTP параметров.
 public class Main {
-    public static void main(String[] args) throws InterruptedException {
-        Server server = new Server(9999);
+    public static void main(String[] args) throws InterruptedException, IOException {
+        ServerConfig.Engine engine = args.length > 0
+                ? ServerConfig.Engine.valueOf(args[0].toUpperCase())
+                : ServerConfig.Engine.BLOCKING;
+        boolean virtualThreads = args.length > 1 && "virtual".equalsIgnoreCase(args[1]);
+        // Запросы пишутся в access.log фоновым потоком, а не печатаются в консоль
+        // При всплеске нагрузки ожидающих в очереди пула не больше 1024, остальные сразу получают 503
+        // В блокирующем режиме каждое keep-alive соединение занимает поток пула (64), поэтому
+        // следующего запроса оно ждет не дольше blockingIdleTimeout (2 с), а не keepAliveTimeout
+        // По SIGTERM/Ctrl+C сервер перестает принимать соединения и до 30 секунд дорабатывает начатые запросы
+        Server server = new Server(ServerConfig.builder(9999)
+                .engine(engine)
+                .virtualThreads(virtualThreads)
+                .workQueueCapacity(1024)
+                .logRequests(false)
+                .accessLog(Path.of("access.log"))
+                .shutdownHook(true)
+                .build());
 
-        // Обработчик для статических файлов
-        server.addHandler("GET", "/index.html", (request, out) -> {
+        // Один обработчик для всех статических файлов из ./public
+        // Ответы кэшируются в памяти (до 16 МБ, файлы до 1 МБ) и сбрасываются при изменении файлов
+        Path publicDir = Path.of(".", "public");
+        FileWatcher watcher = new FileWatcher(publicDir);
+        StaticCache cache = new StaticCache(16 * 1024 * 1024, 1024 * 1024);
+        cache.watch(watcher);
+        // Файл ищется в папке на каждый запрос: новые файлы отдаются без перезапуска,
+        // а точные маршруты ниже (/classic.html, /messages, /metrics) главнее "/*"
+        server.addHandler("GET", "/*", new StaticFileHandler(server, publicDir, cache));
+
+        // Динамические страницы: шаблон разбирается один раз и обновляется при изменении файла
+        TemplateEngine templates = new TemplateEngine(publicDir);
+        templates.watch(watcher);
+        server.addHandler("GET", "/classic.html", (request, out) -> {
             try {
-                Path filePath = Path.of(".", "public", "index.html");
-                String mimeType = Files.probeContentType(filePath);
-                server.sendOk(out, mimeType, filePath);
+                Template template = templates.get("classic.html");
+                server.sendOk(out, "text/html", template, Map.of("time", LocalDateTime.now()));
             } catch (Exception e) {
                 try {
                     server.sendNotFound(out);
@@ -33,49 +63,60 @@ public class Main {
             }
         });
 
-        server.addHandler("GET", "/spring.svg", (request, out) -> {
+        // Лента сообщений: GET с Accept: text/event-stream - подписка (SSE),
+        // иначе JSON с сообщениями после ?last= (с ?wait=N - long-poll до N секунд)
+        // POST публикует параметр text формы или тело запроса целиком
+        // При остановке сервер ждет, пока broker ответит своим long-poll и SSE клиентам
+        MessageBroker broker = new MessageBroker(server);
+        server.addDrainable(broker);
+        server.addHandler("GET", "/messages", (request, out) -> {
             try {
-                Path filePath = Path.of(".", "public", "spring.svg");
-                String mimeType = Files.probeContentType(filePath);
-                server.sendOk(out, mimeType, filePath);
-            } catch (Exception e) {
-                try {
-                    server.sendNotFound(out);
-                } catch (IOException ex) {
-                    throw new RuntimeException(ex);
+                String accept = request.getHeader("accept");
+                if (accept != null && accept.contains("text/event-stream")) {
+                    broker.subscribe(request, out);
+                } else {
+                    broker.poll(request, out);
                 }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         });
-
-        server.addHandler("GET", "/classic.html", (request, out) -> {
+        server.addHandler("POST", "/messages", (request, out) -> {
             try {
-                Path filePath = Path.of(".", "public", "classic.html");
-                String template = Files.readString(filePath);
-                String content = template.replace("{time}", LocalDateTime.now().toString());
-                byte[] bytes = content.getBytes(UTF_8);
-                server.sendOk(out, "text/html", bytes);
-            } catch (Exception e) {
-                try {
-                    server.sendNotFound(out);
-                } catch (IOException ex) {
-                    throw new RuntimeException(ex);
+                String contentType = request.getHeader("content-type");
+                String text;
+                if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+                    String param = request.getFormParam("text");
+                    text = param == null ? "" : URLDecoder.decode(param, UTF_8);
+                } else {
+                    text = new String(request.getBody().readAllBytes(), UTF_8);
                 }
+                long id = broker.publish(text);
+                server.sendOk(out, "application/json", ("{\"id\":" + id + "}").getBytes(UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         });
 
-        server.addHandler("GET", "/messages", (request, out) -> {
-            String lastParam = request.getQueryParam("last");
-            Map<String, String> allParams = request.getQueryParams();
-
+        // Метрики сервера в формате Prometheus
+        server.addHandler("GET", "/metrics", (request, out) -> {
+            try {
+                server.sendOk(out, Metrics.CONTENT_TYPE, server.getMetrics().scrape().getBytes(UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         });
 
-        // Запуск сервера
+        // Запуск сервера; start() возвращает управление после остановки
+        // broker закрывается только после stop(): stop() ждет, пока он ответит своим клиентам
+        // (при SIGTERM stop() из shutdown hook еще идет, и этот вызов ждет его окончания)
         try {
             server.start();
         } catch (Exception e) {
             System.err.println("Server failed to start: " + e.getMessage());
         } finally {
             server.stop();
+            broker.close();
         }
     }
 }
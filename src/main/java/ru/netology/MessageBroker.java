@@ -0,0 +1,370 @@
+package ru.netology;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//MessageBroker:
+//
+//Лента сообщений для /messages: публикация, Server-Sent Events и long-poll
+//Сообщения хранятся в общем кольцевом буфере MessageRing; подписчик - это только
+//неблокирующий канал и номер следующего сообщения, поэтому рассылка тысячам подписчиков
+//не требует ни потока, ни очереди на каждого
+//Соединение подписчика забирается у сервера через ResponseStream.detach() и дальше
+//обслуживается одним потоком broker'а на своем Selector'е:
+//- новые сообщения пишутся пачками (gathering write) из общих байтов события
+//- молчащим подписчикам раз в heartbeatInterval уходит комментарий ": ping"
+//- подписчик, отставший больше чем на размер буфера или не принимающий данные
+//  дольше slowConsumerTimeout, отключается (браузер переподключится с Last-Event-ID)
+//При остановке сервера (Server.stop() -> drain()) long-poll запросы сразу получают ответ,
+//а потоки SSE дописываются и закрываются
+public class MessageBroker implements Closeable, Drainable {
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 15_000;
+    public static final long DEFAULT_SLOW_CONSUMER_TIMEOUT = 30_000;
+    // Дольше этого long-poll запрос не ждет, даже если клиент попросил
+    public static final long MAX_POLL_WAIT = 60_000;
+    private static final int MAX_BATCH = 64;
+    private static final long TICK = 1_000;
+    // Как часто drain() проверяет, остались ли подписчики
+    private static final long DRAIN_POLL_INTERVAL = 50;
+    private static final byte[] SSE_HEADERS = ("HTTP/1.1 200 OK\r\n" +
+            "Content-Type: text/event-stream; charset=utf-8\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Connection: close\r\n" +
+            "\r\n" +
+            "retry: 3000\n\n").getBytes(US_ASCII);
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(US_ASCII);
+
+    private final Server server;
+    private final MessageRing ring;
+    private final long heartbeatInterval;
+    private final long slowConsumerTimeout;
+    private final Selector selector;
+    private final Queue<Subscriber> incoming = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer scratch = ByteBuffer.allocate(1024);
+    private final Thread thread;
+    private volatile boolean running = true;
+    // Идет drain(): новых сообщений подписчики уже не ждут
+    private volatile boolean draining;
+    private volatile int subscriberCount;
+
+    public MessageBroker(Server server) throws IOException {
+        this(server, DEFAULT_CAPACITY, DEFAULT_HEARTBEAT_INTERVAL, DEFAULT_SLOW_CONSUMER_TIMEOUT);
+    }
+//Конструктор MessageBroker(Server server, int capacity, long heartbeatInterval, long slowConsumerTimeout):
+//
+//capacity - сколько последних сообщений хранится (степень двойки)
+//Интервалы в миллисекундах
+    public MessageBroker(Server server, int capacity, long heartbeatInterval, long slowConsumerTimeout) throws IOException {
+        if (heartbeatInterval <= 0 || slowConsumerTimeout <= 0) {
+            throw new IllegalArgumentException("Intervals must be positive");
+        }
+        this.server = server;
+        this.ring = new MessageRing(capacity);
+        this.heartbeatInterval = heartbeatInterval;
+        this.slowConsumerTimeout = slowConsumerTimeout;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "message-broker");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+//publish(String data):
+//
+//Добавляет сообщение в буфер и будит поток рассылки; возвращает номер сообщения
+    public long publish(String data) {
+        long id = ring.append(data).id();
+        selector.wakeup();
+        return id;
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount;
+    }
+//subscribe(Request request, BufferedOutputStream out):
+//
+//Отвечает text/event-stream и передает соединение broker'у
+//Рассылка начинается после Last-Event-ID (или ?last=), без них - с новых сообщений
+//Если клиент отстал больше чем на размер буфера, он получит сообщения с самого старого
+    public void subscribe(Request request, BufferedOutputStream out) throws IOException {
+        long last = lastEventId(request);
+        long from = last < 0 ? ring.next() : Math.max(last + 1, ring.oldest());
+        out.write(SSE_HEADERS);
+        if (!(out instanceof ResponseStream response)
+                || !response.detach(channel -> add(new Subscriber(channel, from, 0)))) {
+            out.flush();
+        }
+    }
+//poll(Request request, BufferedOutputStream out):
+//
+//Отвечает JSON-массивом сообщений после ?last= (не больше 64 за раз)
+//С ?wait=N и без новых сообщений ждет до N секунд (long-poll), не занимая поток:
+//соединение передается broker'у, и он отвечает, как только появится сообщение
+    public void poll(Request request, BufferedOutputStream out) throws IOException {
+        long last = Math.max(0, lastEventId(request));
+        long wait = Math.min(MAX_POLL_WAIT, parseLong(request.getQueryParam("wait"), 0) * 1000);
+        if (wait > 0 && ring.next() <= last + 1 && out instanceof ResponseStream response) {
+            long deadline = System.currentTimeMillis() + wait;
+            if (response.detach(channel -> add(new Subscriber(channel, last + 1, deadline)))) {
+                return;
+            }
+        }
+        server.sendOk(out, "application/json", json(last + 1).getBytes(UTF_8));
+    }
+
+    private void add(Subscriber subscriber) {
+        incoming.add(subscriber);
+        selector.wakeup();
+    }
+
+    private static long lastEventId(Request request) {
+        String header = request.getHeader("last-event-id");
+        return parseLong(header != null ? header : request.getQueryParam("last"), -1);
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) return defaultValue;
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+//json(long from):
+//
+//[{"id":1,"data":"..."}, ...] - сообщения начиная с from (или с самого старого в буфере)
+    private String json(long from) {
+        StringBuilder json = new StringBuilder("[");
+        long id = Math.max(from, ring.oldest());
+        long end = Math.min(ring.next(), id + MAX_BATCH);
+        for (; id < end; id++) {
+            MessageRing.Message message = ring.get(id);
+            if (message == null) continue;
+            if (json.length() > 1) json.append(',');
+            json.append("{\"id\":").append(message.id()).append(",\"data\":\"");
+            escape(message.data(), json);
+            json.append("\"}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static void escape(String value, StringBuilder json) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select(TICK);
+                Subscriber subscriber;
+                while ((subscriber = incoming.poll()) != null) {
+                    register(subscriber);
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() && key.isReadable()) {
+                        readAndDiscard((Subscriber) key.attachment());
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.currentTimeMillis();
+                for (SelectionKey key : selector.keys()) {
+                    if (!key.isValid()) continue;
+                    Subscriber current = (Subscriber) key.attachment();
+                    try {
+                        pump(current, now);
+                    } catch (IOException e) {
+                        close(current);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Message broker error: " + e.getMessage());
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            close((Subscriber) key.attachment());
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // Broker уже остановлен
+        }
+    }
+
+    private void register(Subscriber subscriber) {
+        try {
+            subscriber.key = subscriber.channel.register(selector, SelectionKey.OP_READ, subscriber);
+            subscriberCount++;
+        } catch (IOException e) {
+            closeQuietly(subscriber.channel);
+        }
+    }
+
+    // Подписчик ничего не присылает; -1 означает, что клиент ушел
+    private void readAndDiscard(Subscriber subscriber) {
+        try {
+            scratch.clear();
+            if (subscriber.channel.read(scratch) == -1) {
+                close(subscriber);
+            }
+        } catch (IOException e) {
+            close(subscriber);
+        }
+    }
+//pump(Subscriber subscriber, long now):
+//
+//Дописывает подписчику все, что сокет примет без блокировки
+//Отставшего или не читающего подписчика отключает
+    private void pump(Subscriber subscriber, long now) throws IOException {
+        while (subscriber.key.isValid()) {
+            if (subscriber.pending == null && !prepare(subscriber, now)) {
+                return;
+            }
+            subscriber.channel.write(subscriber.pending);
+            if (subscriber.pending[subscriber.pending.length - 1].hasRemaining()) {
+                if (subscriber.blockedSince == 0) {
+                    subscriber.blockedSince = now;
+                } else if (now - subscriber.blockedSince > slowConsumerTimeout) {
+                    close(subscriber);
+                    return;
+                }
+                subscriber.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            subscriber.pending = null;
+            subscriber.blockedSince = 0;
+            subscriber.lastWrite = now;
+            subscriber.key.interestOps(SelectionKey.OP_READ);
+            if (subscriber.deadline != 0 || draining) {
+                // Long-poll получил ответ целиком или поток SSE дописан перед остановкой
+                close(subscriber);
+                return;
+            }
+        }
+    }
+
+    // Готовит следующую порцию для отправки; false - отправлять пока нечего
+    private boolean prepare(Subscriber subscriber, long now) {
+        long available = ring.next() - subscriber.next;
+        if (subscriber.deadline != 0) {
+            if (available <= 0 && now < subscriber.deadline && !draining) return false;
+            byte[] body = json(subscriber.next).getBytes(UTF_8);
+            byte[] head = ("HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: application/json\r\n" +
+                    "Content-Length: " + body.length + "\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n").getBytes(US_ASCII);
+            subscriber.pending = new ByteBuffer[]{ByteBuffer.wrap(head), ByteBuffer.wrap(body)};
+            return true;
+        }
+        if (draining) {
+            // Поток SSE заканчивается закрытием соединения, браузер переподключится
+            close(subscriber);
+            return false;
+        }
+        if (available <= 0) {
+            if (now - subscriber.lastWrite < heartbeatInterval) return false;
+            subscriber.pending = new ByteBuffer[]{ByteBuffer.wrap(HEARTBEAT)};
+            return true;
+        }
+        if (subscriber.next < ring.oldest()) {
+            // Сообщения, которые он еще не получил, уже затерты
+            close(subscriber);
+            return false;
+        }
+        int count = (int) Math.min(MAX_BATCH, available);
+        ByteBuffer[] batch = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            MessageRing.Message message = ring.get(subscriber.next + i);
+            if (message == null) {
+                close(subscriber);
+                return false;
+            }
+            batch[i] = ByteBuffer.wrap(message.event());
+        }
+        subscriber.next += count;
+        subscriber.pending = batch;
+        return true;
+    }
+
+    private void close(Subscriber subscriber) {
+        if (subscriber.key != null && subscriber.key.isValid()) {
+            subscriber.key.cancel();
+            subscriberCount--;
+        }
+        closeQuietly(subscriber.channel);
+    }
+//drain(long deadline):
+//
+//Отвечает всем long-poll запросам (новыми сообщениями или []), дописывает начатые порции SSE
+//и закрывает соединения; ждет этого не дольше deadline (System.nanoTime())
+//Подписчики, пришедшие после вызова, обслуживаются так же и сразу отключаются
+    @Override
+    public void drain(long deadline) throws InterruptedException {
+        draining = true;
+        selector.wakeup();
+        while (running && (subscriberCount > 0 || !incoming.isEmpty()) && deadline - System.nanoTime() > 0) {
+            Thread.sleep(DRAIN_POLL_INTERVAL);
+        }
+    }
+//close():
+//
+//Останавливает рассылку и закрывает соединения всех подписчиков
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Соединение уже закрыто клиентом
+        }
+    }
+//Subscriber:
+//
+//Состояние одного подписчика; меняется только потоком broker'а
+//deadline != 0 - long-poll запрос, который ждет до этого момента
+    private static final class Subscriber {
+        private final SocketChannel channel;
+        private final long deadline;
+        private SelectionKey key;
+        private long next;
+        private ByteBuffer[] pending;
+        private long lastWrite = System.currentTimeMillis();
+        private long blockedSince;
+
+        Subscriber(SocketChannel channel, long next, long deadline) {
+            this.channel = channel;
+            this.next = next;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.netology;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//MessageRing:
+//
+//Кольцевой буфер последних сообщений с номерами 1, 2, 3, ...
+//Сообщение с номером id лежит в ячейке id & mask, поэтому get(id) - O(1) без поиска
+//Новые сообщения затирают самые старые; подписчик, отставший больше чем на capacity
+//сообщений, узнает об этом по get() == null
+//Писатели синхронизированы между собой, читатели работают без блокировок
+final class MessageRing {
+//Message:
+//
+//Сообщение и его готовое представление в формате text/event-stream,
+//которое один раз кодируется при публикации и отправляется всем подписчикам
+    record Message(long id, String data, byte[] event) {
+    }
+
+    private final AtomicReferenceArray<Message> slots;
+    private final int mask;
+    // Номер следующего сообщения; все сообщения с меньшими номерами уже в буфере
+    private volatile long next = 1;
+
+    MessageRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    long next() {
+        return next;
+    }
+
+    // Номер самого старого сообщения, которое еще можно прочитать
+    long oldest() {
+        return Math.max(1, next - capacity());
+    }
+
+    synchronized Message append(String data) {
+        Message message = new Message(next, data, encode(next, data));
+        slots.set((int) (message.id() & mask), message);
+        next = message.id() + 1;
+        return message;
+    }
+//encode(long id, String data):
+//
+//id: 42
+//data: первая строка
+//data: вторая строка
+//(пустая строка - конец события)
+    static byte[] encode(long id, String data) {
+        StringBuilder event = new StringBuilder(data.length() + 32);
+        event.append("id: ").append(id).append('\n');
+        for (String line : data.split("\r\n|\r|\n", -1)) {
+            event.append("data: ").append(line).append('\n');
+        }
+        event.append('\n');
+        return event.toString().getBytes(UTF_8);
+    }
+//get(long id):
+//
+//Сообщение с номером id или null, если его еще нет или оно уже затерто
+    Message get(long id) {
+        if (id >= next) return null;
+        Message message = slots.get((int) (id & mask));
+        return message != null && message.id() == id ? message : null;
+    }
+}
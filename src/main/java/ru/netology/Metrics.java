@@ -0,0 +1,196 @@
+package ru.netology;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+//Metrics:
+//
+//Встроенные метрики сервера, общие для обоих движков
+//Счетчики - LongAdder (у каждого потока своя ячейка, записи не конкурируют между собой),
+//длительности - LatencyHistogram на каждый метод и маршрут Router'а
+//Маршрут берется шаблоном ("/messages/{id}"), а не путем, чтобы число рядов не росло
+//от параметров в пути; запросы без маршрута попадают в route="unmatched"
+//Метод приходит от клиента как есть, поэтому все, кроме RequestParser.KNOWN_METHODS,
+//считается одним рядом method="OTHER": иначе каждый новый метод добавлял бы гистограмму
+//scrape() отдает все в текстовом формате Prometheus (Server отдает его на /metrics)
+public class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    static final String UNMATCHED_ROUTE = "unmatched";
+    static final String OTHER_METHOD = "OTHER";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final int MAX_STATUS = 600;
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder[] statuses = new LongAdder[MAX_STATUS];
+    private final LongAdder[] rejected = new LongAdder[AdmissionControl.Rejection.values().length];
+    private final LatencyHistogram parseTime = new LatencyHistogram();
+    // шаблон маршрута -> метод -> гистограмма времени обработчика
+    private final Map<String, Map<String, LatencyHistogram>> handlerTime = new ConcurrentHashMap<>();
+    private volatile IntSupplier queueDepth = () -> 0;
+    // null - адаптивный предел выключен
+    private volatile IntSupplier concurrencyLimit;
+
+    public Metrics() {
+        for (int i = 0; i < MAX_STATUS; i++) {
+            statuses[i] = new LongAdder();
+        }
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    void connectionOpened() {
+        connections.increment();
+        activeConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    void bytesIn(long count) {
+        bytesIn.add(count);
+    }
+
+    // Время разбора request line и заголовков
+    void parsed(long nanos) {
+        parseTime.record(nanos);
+    }
+//handled(String method, String route, long nanos):
+//
+//Время одного вызова обработчика; route - шаблон маршрута или null (404)
+    void handled(String method, String route, long nanos) {
+        String key = route == null ? UNMATCHED_ROUTE : route;
+        // Обычно ряд уже есть: get() не блокирует, computeIfAbsent() нужен только в первый раз
+        Map<String, LatencyHistogram> methods = handlerTime.get(key);
+        if (methods == null) {
+            methods = handlerTime.computeIfAbsent(key, r -> new ConcurrentHashMap<>());
+        }
+        String label = methodLabel(method);
+        LatencyHistogram histogram = methods.get(label);
+        if (histogram == null) {
+            histogram = methods.computeIfAbsent(label, m -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    // Метка метода с ограниченным набором значений
+    static String methodLabel(String method) {
+        for (String known : RequestParser.KNOWN_METHODS) {
+            if (known.equals(method)) {
+                return known;
+            }
+        }
+        return OTHER_METHOD;
+    }
+
+    // Отправленный ответ: status 0 - обработчик ничего не ответил, bytes - вместе с заголовками
+    void responded(int status, long bytes) {
+        if (status > 0 && status < MAX_STATUS) {
+            statuses[status].increment();
+        }
+        bytesOut.add(bytes);
+    }
+
+    // Соединение или запрос отклонены AdmissionControl (сам ответ учитывает responded())
+    void rejected(AdmissionControl.Rejection rejection) {
+        rejected[rejection.ordinal()].increment();
+    }
+
+    // Источник текущего предела ConcurrencyLimit (задает AdmissionControl)
+    void setConcurrencyLimit(IntSupplier concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    // Источник глубины очереди пула обработчиков (задает Server)
+    void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+//scrape():
+//
+//Все метрики в текстовом формате Prometheus 0.0.4
+//Длительности - в секундах, как summary с квантилями 0.5, 0.9, 0.99 и 0.999
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "http_connections_active", "Open client connections", activeConnections.sum());
+        counter(out, "http_connections_total", "Accepted client connections", connections.sum());
+        counter(out, "http_received_bytes_total", "Bytes read from clients", bytesIn.sum());
+        counter(out, "http_sent_bytes_total", "Response bytes written to clients", bytesOut.sum());
+        gauge(out, "http_worker_queue_depth", "Tasks waiting for a handler thread", queueDepth.getAsInt());
+        IntSupplier limit = concurrencyLimit;
+        if (limit != null) {
+            gauge(out, "http_concurrency_limit", "Adaptive limit of concurrently processed requests", limit.getAsInt());
+        }
+
+        header(out, "http_rejected_total", "Connections and requests rejected by overload protection", "counter");
+        for (AdmissionControl.Rejection rejection : AdmissionControl.Rejection.values()) {
+            out.append("http_rejected_total{reason=\"").append(rejection.getLabel()).append("\"} ")
+                    .append(rejected[rejection.ordinal()].sum()).append('\n');
+        }
+
+        header(out, "http_responses_total", "Responses by status code", "counter");
+        for (int status = 0; status < MAX_STATUS; status++) {
+            long count = statuses[status].sum();
+            if (count > 0) {
+                out.append("http_responses_total{code=\"").append(status).append("\"} ").append(count).append('\n');
+            }
+        }
+
+        header(out, "http_request_parse_seconds", "Time to parse the request line and headers", "summary");
+        summary(out, "http_request_parse_seconds", "", parseTime);
+
+        header(out, "http_handler_seconds", "Handler time by method and route", "summary");
+        for (Map.Entry<String, Map<String, LatencyHistogram>> route : handlerTime.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> method : route.getValue().entrySet()) {
+                String labels = "method=\"" + escape(method.getKey()) + "\",route=\"" + escape(route.getKey()) + "\"";
+                summary(out, "http_handler_seconds", labels, method.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{").append(labels).append(separator)
+                    .append("quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.getQuantile(quantile))).append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(seconds(histogram.getSum())).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    // Экранирование значения метки: \, " и перевод строки
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,72 @@
+package ru.netology;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//MpscRing:
+//
+//Ограниченная очередь без блокировок: много писателей, один читатель
+//(схема Д. Вьюкова: у каждой ячейки свой номер последовательности)
+//Писатель занимает позицию одним CAS по tail и публикует элемент записью номера ячейки,
+//поэтому писатели не ждут друг друга дольше одного CAS, а читатель вообще не пишет в tail
+//offer() не ждет: при заполненной очереди возвращает false, решение за вызывающим
+final class MpscRing<E> {
+    private final AtomicReferenceArray<E> slots;
+    // sequences[i] == pos - ячейка свободна для записи в позицию pos,
+    // pos + 1 - в ней лежит элемент позиции pos
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Меняет только читатель
+    private volatile long head;
+
+    MpscRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+    }
+
+    boolean offer(E element) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long difference = sequences.get(index) - pos;
+            if (difference == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(index, element);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // Ячейку еще не освободил читатель: очередь полна
+                return false;
+            }
+            // Иначе позицию уже занял другой писатель: пробуем следующую
+        }
+    }
+
+    // Только для потока-читателя; null, если очередь пуста
+    E poll() {
+        long pos = head;
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+        E element = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.set(index, pos + mask + 1);
+        head = pos + 1;
+        return element;
+    }
+
+    boolean isEmpty() {
+        return head == tail.get();
+    }
+}
@@ -0,0 +1,338 @@
+package ru.netology;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//MultipartParser:
+//
+//Потоковый разбор multipart/form-data прямо из байтов тела, без строк и регулярных выражений
+//Разделитель "\r\n--boundary" ищется алгоритмом Бойера-Мура-Хорспула в скользящем буфере,
+//поэтому в памяти никогда не бывает больше одного буфера тела
+//Текстовые поля собираются в памяти (не больше MAX_FIELD_SIZE), файлы - в памяти до
+//fileThreshold байт, а дальше дописываются во временный файл
+final class MultipartParser {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PART_HEADER_SIZE = 8 * 1024;
+    static final int MAX_FIELD_SIZE = 1024 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final int[] shift = new int[256];
+    private final long fileThreshold;
+    private final byte[] buffer;
+    private final List<FilePart> created = new ArrayList<>();
+    private int pos;
+    private int limit;
+
+    MultipartParser(InputStream in, String boundary, long fileThreshold) throws RequestParseException {
+        if (boundary.isEmpty() || boundary.length() > 70) {
+            throw new RequestParseException(400, "Invalid multipart boundary");
+        }
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(ISO_8859_1);
+        this.fileThreshold = fileThreshold;
+        this.buffer = new byte[BUFFER_SIZE];
+
+        // Таблица сдвигов Хорспула: насколько можно сдвинуть окно по последнему байту окна
+        Arrays.fill(shift, delimiter.length);
+        for (int i = 0; i < delimiter.length - 1; i++) {
+            shift[delimiter[i] & 0xff] = delimiter.length - 1 - i;
+        }
+        // Первый разделитель стоит в самом начале тела без \r\n перед ним:
+        // добавляем их в буфер, чтобы все разделители выглядели одинаково
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+//parse(Map<String, String> fields, Map<String, FilePart> files):
+//
+//Читает тело до закрывающего разделителя и раскладывает части по картам
+//При ошибке удаляет уже созданные временные файлы
+    void parse(Map<String, String> fields, Map<String, FilePart> files) throws IOException {
+        try {
+            // Преамбула до первого разделителя игнорируется
+            if (!copyToDelimiter(null)) {
+                throw new RequestParseException(400, "Multipart boundary not found");
+            }
+            while (true) {
+                require(2);
+                if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+                    return;
+                }
+                skipLineEnd();
+                PartHeaders headers = readPartHeaders();
+                boolean isFile = headers.filename != null;
+                PartSink sink = new PartSink(isFile ? fileThreshold : MAX_FIELD_SIZE, isFile);
+                try {
+                    if (!copyToDelimiter(sink)) {
+                        throw new RequestParseException(400, "Unexpected end of multipart body");
+                    }
+                    sink.close();
+                } catch (IOException | RuntimeException e) {
+                    // Недочитанная часть (обрыв соединения, 413) еще не в created: ее файл удаляем здесь
+                    sink.discard();
+                    throw e;
+                }
+                if (headers.name == null) {
+                    sink.discard();
+                } else if (isFile) {
+                    FilePart part = sink.toFilePart(headers);
+                    created.add(part);
+                    FilePart previous = files.put(headers.name, part);
+                    if (previous != null) {
+                        previous.delete();
+                    }
+                } else {
+                    fields.put(headers.name, new String(sink.memory.toByteArray(), UTF_8));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (FilePart part : created) {
+                part.delete();
+            }
+            throw e;
+        }
+    }
+//copyToDelimiter(PartSink sink):
+//
+//Пишет байты в sink до следующего разделителя и встает сразу за ним
+//Хвост буфера короче разделителя не отдается: в нем может начинаться разделитель
+//Возвращает false, если тело кончилось раньше
+    private boolean copyToDelimiter(PartSink sink) throws IOException {
+        while (true) {
+            int found = indexOfDelimiter(pos, limit);
+            if (found >= 0) {
+                if (sink != null) sink.write(buffer, pos, found - pos);
+                pos = found + delimiter.length;
+                return true;
+            }
+            int safe = limit - (delimiter.length - 1);
+            if (safe > pos) {
+                if (sink != null) sink.write(buffer, pos, safe - pos);
+                pos = safe;
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    private int indexOfDelimiter(int from, int to) {
+        int last = delimiter.length - 1;
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (j >= 0 && buffer[i + j] == delimiter[j]) {
+                j--;
+            }
+            if (j < 0) {
+                return i;
+            }
+            i += shift[buffer[i + last] & 0xff];
+        }
+        return -1;
+    }
+
+    // После разделителя допускаются пробелы (transport padding), затем \r\n
+    private void skipLineEnd() throws IOException {
+        while (true) {
+            require(1);
+            byte b = buffer[pos];
+            if (b == ' ' || b == '\t') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        require(2);
+        if (buffer[pos] != '\r' || buffer[pos + 1] != '\n') {
+            throw new RequestParseException(400, "Invalid multipart delimiter line");
+        }
+        pos += 2;
+    }
+
+    private PartHeaders readPartHeaders() throws IOException {
+        PartHeaders headers = new PartHeaders();
+        int total = 0;
+        while (true) {
+            int lineFeed = -1;
+            while (true) {
+                for (int i = pos; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        lineFeed = i;
+                        break;
+                    }
+                }
+                if (lineFeed != -1) break;
+                if (limit - pos >= MAX_PART_HEADER_SIZE || !fill()) {
+                    throw new RequestParseException(400, "Invalid multipart part headers");
+                }
+            }
+            int lineEnd = lineFeed > pos && buffer[lineFeed - 1] == '\r' ? lineFeed - 1 : lineFeed;
+            String line = new String(buffer, pos, lineEnd - pos, UTF_8);
+            total += lineFeed + 1 - pos;
+            pos = lineFeed + 1;
+            if (line.isEmpty()) {
+                return headers;
+            }
+            if (total > MAX_PART_HEADER_SIZE) {
+                throw new RequestParseException(400, "Multipart part headers are too large");
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("content-disposition")) {
+                parseDisposition(value, headers);
+            } else if (name.equals("content-type")) {
+                headers.contentType = value;
+            }
+        }
+    }
+//parseDisposition(String value, PartHeaders headers):
+//
+//form-data; name="field"; filename="a.txt" (или filename*=utf-8''%D0%B0.txt)
+    private static void parseDisposition(String value, PartHeaders headers) {
+        int i = value.indexOf(';');
+        while (i != -1 && i < value.length()) {
+            int eq = value.indexOf('=', i + 1);
+            if (eq == -1) return;
+            String key = value.substring(i + 1, eq).trim().toLowerCase(Locale.ROOT);
+            int next;
+            String param;
+            if (eq + 1 < value.length() && value.charAt(eq + 1) == '"') {
+                StringBuilder quoted = new StringBuilder();
+                int j = eq + 2;
+                while (j < value.length() && value.charAt(j) != '"') {
+                    if (value.charAt(j) == '\\' && j + 1 < value.length()) j++;
+                    quoted.append(value.charAt(j));
+                    j++;
+                }
+                param = quoted.toString();
+                next = value.indexOf(';', j);
+            } else {
+                next = value.indexOf(';', eq + 1);
+                param = value.substring(eq + 1, next == -1 ? value.length() : next).trim();
+            }
+            switch (key) {
+                case "name" -> headers.name = param;
+                case "filename" -> {
+                    if (headers.filename == null) headers.filename = param;
+                }
+                case "filename*" -> {
+                    int quote = param.indexOf("''");
+                    String encoded = quote == -1 ? param : param.substring(quote + 2);
+                    byte[] bytes = encoded.getBytes(ISO_8859_1);
+                    headers.filename = RequestHead.decode(bytes, 0, bytes.length);
+                }
+                default -> {
+                }
+            }
+            i = next;
+        }
+    }
+
+    private void require(int count) throws IOException {
+        while (limit - pos < count) {
+            if (!fill()) {
+                throw new RequestParseException(400, "Unexpected end of multipart body");
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buffer.length) {
+            return true;
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    private static final class PartHeaders {
+        private String name;
+        private String filename;
+        private String contentType;
+    }
+//PartSink:
+//
+//Приемник содержимого одной части: память до threshold байт, затем временный файл
+//(для текстовых полей переполнение - ошибка 413)
+    private static final class PartSink {
+        private final long threshold;
+        private final boolean spill;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private OutputStream fileOut;
+        private Path file;
+        private long size;
+
+        PartSink(long threshold, boolean spill) {
+            this.threshold = threshold;
+            this.spill = spill;
+        }
+
+        void write(byte[] bytes, int off, int len) throws IOException {
+            size += len;
+            if (fileOut != null) {
+                fileOut.write(bytes, off, len);
+                return;
+            }
+            if (memory.size() + len > threshold) {
+                if (!spill) {
+                    throw new RequestParseException(413, "Multipart field is larger than " + threshold + " bytes");
+                }
+                file = Files.createTempFile("upload-", ".part");
+                fileOut = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+                memory.writeTo(fileOut);
+                memory = null;
+                fileOut.write(bytes, off, len);
+                return;
+            }
+            memory.write(bytes, off, len);
+        }
+
+        void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        void discard() throws IOException {
+            try {
+                close();
+            } finally {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        FilePart toFilePart(PartHeaders headers) {
+            if (file != null) {
+                return new FilePart(headers.name, headers.filename, headers.contentType, file, size);
+            }
+            return new FilePart(headers.name, headers.filename, headers.contentType, memory.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,904 @@
+package ru.netology;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+//NioServerEngine:
+//
+//Неблокирующий движок: ServerSocketChannel + несколько Selector'ов (event loop'ов)
+//Поток event loop'а только принимает соединения, читает и пишет байты, никогда не блокируясь
+//Запрос уходит в пул потоков, где вызывается Handler, как только разобрана его голова;
+//тело обработчик читает сам прямо из соединения (BodyInput), поэтому оно не копится в памяти,
+//а большие файлы из multipart пишутся на диск, как и в блокирующем движке
+//Ответ копится в direct буферах из BufferPool и отправляется обратно event loop'ом
+//(потоковый - порциями по push()); соседние буферы уходят одним gathering write,
+//файлы не копируются, а отправляются через FileChannel.transferTo (sendfile)
+//Медленный или простаивающий клиент не занимает ни одного потока, пока не отправит голову
+//запроса; медленно отправляемое тело держит поток обработчика (не дольше keepAliveTimeout
+//на каждое ожидание данных)
+//Перегрузку отсекает AdmissionControl: лишнее соединение получает 503 прямо в accept(),
+//лишний запрос - 429/503 от event loop'а, не доходя до пула
+//stopAccepting() + awaitConnections() останавливают движок, дожидаясь ответов на уже принятые запросы
+class NioServerEngine implements Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final long IDLE_SCAN_INTERVAL = 1_000;
+    // Как часто awaitConnections() проверяет, закрылись ли все соединения
+    private static final long DRAIN_POLL_INTERVAL = 50;
+    // Сколько буферов ответа отправляется одним gathering write
+    private static final int GATHER_SIZE = 16;
+    // Буфер BufferedResponse в куче: мелкие записи копятся в нем, крупные идут сразу в BufferPool
+    private static final int RESPONSE_BUFFER_SIZE = 512;
+
+
+    private final Server server;
+    private final ServerConfig config;
+    private final Executor workers;
+    private final AdmissionControl admission;
+    private final EventLoop[] loops;
+    // Открытые соединения, для ограничения maxConnections; меняется только потоками event loop'ов
+    private final AtomicInteger connections = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+    // Идет остановка: keep-alive соединения закрываются, как только перестают быть заняты
+    private volatile boolean draining;
+    private int nextLoop;
+
+    NioServerEngine(Server server, ServerConfig config, Executor workers) throws IOException {
+        this.server = server;
+        this.config = config;
+        this.workers = workers;
+        this.admission = server.getAdmissionControl();
+        this.loops = new EventLoop[config.getEventLoops()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+    }
+//bind():
+//
+//Открывает неблокирующий ServerSocketChannel и регистрирует его в первом event loop'е
+    void bind() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(config.getPort()), config.getBacklog());
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+//run():
+//
+//Запускает потоки event loop'ов и ждет их завершения (как блокирующий Server.start())
+    void run() {
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        try {
+            for (EventLoop loop : loops) {
+                loop.thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+        }
+    }
+//stopAccepting() и awaitConnections(long deadline):
+//
+//Плавная остановка в два шага (между ними Server.stop() вызывает Drainable):
+//stopAccepting() - новые соединения больше не принимаются, keep-alive соединения,
+//ждущие следующего запроса, закрываются, а занятые закроются сами после ответа
+//awaitConnections() - ждет закрытия всех соединений, но не дольше deadline (System.nanoTime()),
+//затем вызывает close()
+    void stopAccepting() {
+        draining = true;
+        if (serverChannel != null) {
+            closeQuietly(serverChannel);
+        }
+        for (EventLoop loop : loops) {
+            loop.execute(loop::closeKeepAlive);
+        }
+    }
+
+    void awaitConnections(long deadline) throws InterruptedException {
+        while (connections.get() > 0 && deadline - System.nanoTime() > 0) {
+            Thread.sleep(DRAIN_POLL_INTERVAL);
+        }
+        close();
+    }
+//close():
+//
+//Останавливает event loop'ы; каждый из них закрывает свои соединения и Selector
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+//accept():
+//
+//Принимает все ожидающие соединения и раздает их event loop'ам по кругу
+//Сверх maxConnections соединение получает готовый 503 и сразу закрывается
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            if (connections.incrementAndGet() > config.getMaxConnections()) {
+                connections.decrementAndGet();
+                try {
+                    admission.reject(channel, AdmissionControl.Rejection.CONNECTIONS);
+                } catch (IOException ignored) {
+                    // Клиент уже закрыл соединение
+                }
+                closeQuietly(channel);
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            EventLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            SocketChannel accepted = channel;
+            loop.execute(() -> loop.register(accepted));
+        }
+    }
+//EventLoop:
+//
+//Один поток и один Selector, обслуживает свою часть соединений
+//Другие потоки (acceptor, обработчики) передают ему работу через очередь tasks
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        // Массив для gathering write, общий для всех соединений event loop'а
+        private final ByteBuffer[] gather = new ByteBuffer[GATHER_SIZE];
+        private long lastIdleScan;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-loop-" + index);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                Connection connection = new Connection(channel, this);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                server.getMetrics().connectionOpened();
+            } catch (IOException e) {
+                connections.decrementAndGet();
+                closeQuietly(channel);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(IDLE_SCAN_INTERVAL);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) connection.onReadable();
+                            if (key.isValid() && key.isWritable()) connection.onWritable();
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                    closeIdle();
+                } catch (IOException e) {
+                    System.err.println("Event loop error: " + e.getMessage());
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+//closeIdle():
+//
+//Раз в секунду закрывает соединения, не проявлявшие активности дольше keepAliveTimeout,
+//а во время остановки (stopAccepting()) - и все ждущие следующего запроса
+//Соединения, чей запрос сейчас выполняется обработчиком, не трогает
+        private void closeIdle() {
+            long timeout = config.getKeepAliveTimeout();
+            long now = System.currentTimeMillis();
+            if (now - lastIdleScan < IDLE_SCAN_INTERVAL) return;
+            lastIdleScan = now;
+            if (draining) {
+                // Соединения, принятые уже после начала остановки и успевшие получить ответ
+                closeKeepAlive();
+            }
+            if (timeout == 0) return;
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection connection
+                        && !connection.processing
+                        && now - connection.lastActive > timeout) {
+                    connection.close();
+                }
+            }
+        }
+//closeKeepAlive():
+//
+//Закрывает соединения, которые уже обслужили запрос и ждут следующего (при остановке)
+//Соединение с выполняемым, отправляемым или недочитанным запросом не трогает
+        void closeKeepAlive() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection connection && connection.isWaiting()) {
+                    connection.close();
+                }
+            }
+        }
+    }
+//Connection:
+//
+//Состояние одного соединения: чтение запроса -> обработка в пуле -> запись ответа -> снова чтение
+//Все методы, кроме handle(), вызываются только потоком своего event loop'а
+    private final class Connection {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private final RequestParser parser = new RequestParser(config.getMaxHeaderSize(), config.getMaxHeaders());
+        // Начало непрочитанных данных в буфере: голова следующего запроса или тело текущего
+        // Пока запрос выполняется (processing), буфером и чтением из канала владеет поток обработчика
+        private int start;
+        // Selector, на котором поток обработчика ждет следующую порцию тела (см. readBody())
+        private Selector bodySelector;
+        private ArrayDeque<Segment> pending;
+        private boolean keepAlive;
+        private boolean processing;
+        private int served;
+        private long lastActive = System.currentTimeMillis();
+        // Потоковый ответ: обработчик ждет, пока event loop отправит предыдущую порцию (см. push())
+        private final Semaphore streamWindow = new Semaphore(1);
+        private boolean streaming;
+        // Получатель соединения после ответа (ResponseStream.detach())
+        private Consumer<SocketChannel> detachTo;
+        // Соединение уже ушло из event loop'а (закрыто или отдано через detach())
+        private boolean left;
+        private final String remoteAddress;
+
+        Connection(SocketChannel channel, EventLoop loop) throws IOException {
+            this.channel = channel;
+            this.loop = loop;
+            this.remoteAddress = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+        }
+
+        // Ответ отправлен, а следующий запрос еще не начал приходить
+        boolean isWaiting() {
+            return served > 0 && !processing && pending == null && in.position() == start;
+        }
+
+        void onReadable() throws IOException {
+            if (!in.hasRemaining()) {
+                grow(in.capacity() * 2);
+            }
+            int read = channel.read(in);
+            if (read == -1) {
+                close();
+                return;
+            }
+            server.getMetrics().bytesIn(read);
+            lastActive = System.currentTimeMillis();
+            tryDispatch();
+        }
+//tryDispatch():
+//
+//Продолжает разбор головы запроса RequestParser'ом с того места, где он остановился
+//Как только голова разобрана, запрос уходит в пул потоков; тело не ждем:
+//его читает обработчик через BodyInput, сначала из буфера, затем из канала
+//Остаток буфера после тела (следующий конвейерный запрос) event loop разберет после ответа
+        private void tryDispatch() {
+            byte[] data = in.array();
+            RequestHead requestHead;
+            InputStream requestBody;
+            try {
+                if (!parser.isInProgress()) {
+                    while (start < in.position() && (data[start] == '\r' || data[start] == '\n')) {
+                        start++;
+                    }
+                }
+                if (start == in.position()) {
+                    in.clear();
+                    start = 0;
+                    return;
+                }
+                int length = parser.parse(data, start, in.position());
+                if (length < 0) {
+                    if (in.position() == in.capacity()) {
+                        grow(in.capacity() * 2);
+                    }
+                    return;
+                }
+                requestHead = parser.finish(data, start, length);
+                server.getMetrics().parsed(parser.getLastParseNanos());
+                start += length;
+                if (requestHead.hasHeader("transfer-encoding")) {
+                    if (!Server.isChunked(requestHead)) {
+                        throw new RequestParseException(501, "Unsupported transfer coding");
+                    }
+                    requestBody = new ChunkedInputStream(new BodyInput(Long.MAX_VALUE));
+                } else {
+                    long contentLength = requestHead.contentLength();
+                    requestBody = contentLength > 0 ? new BodyInput(contentLength) : InputStream.nullInputStream();
+                }
+            } catch (RequestParseException e) {
+                byte[] response = Server.errorResponse(e.getStatus());
+                server.getMetrics().responded(e.getStatus(), response.length);
+                reject(response);
+                return;
+            }
+
+            // Голова больше не нужна: начало тела переносится в начало буфера
+            in.flip();
+            in.position(start);
+            if (in.capacity() > INITIAL_BUFFER_SIZE && in.remaining() <= INITIAL_BUFFER_SIZE) {
+                ByteBuffer shrunk = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+                shrunk.put(in);
+                in = shrunk;
+            } else {
+                in.compact();
+            }
+            start = 0;
+
+            AdmissionControl.Rejection rejection = admission.admit(remoteAddress);
+            if (rejection != null) {
+                reject(admission.reject(rejection));
+                return;
+            }
+            long admitted = System.nanoTime();
+            processing = true;
+            served++;
+            key.interestOps(0);
+            int number = served;
+            try {
+                workers.execute(() -> handle(requestHead, requestBody, number, admitted));
+            } catch (RejectedExecutionException e) {
+                admission.dropped(admitted);
+                reject(admission.reject(AdmissionControl.Rejection.QUEUE));
+            }
+        }
+//handle(RequestHead head, InputStream body, int number, long admitted):
+//
+//Выполняется в пуле потоков: вызывает обработчик общим кодом Server.process(),
+//пишет ответ в память и возвращает его event loop'у
+//Тело обработчик читает или разбирает по требованию прямо из соединения;
+//непрочитанный остаток (не больше Request.MAX_DISCARD_SIZE) пропускается после ответа,
+//чтобы соединение осталось keep-alive, иначе соединение закрывается
+//admitted - момент допуска запроса: время в очереди пула тоже попадает в ConcurrencyLimit
+        private void handle(RequestHead requestHead, InputStream body, int number, long admitted) {
+            BufferedResponse out = new BufferedResponse(this);
+            boolean keepAliveResponse;
+            try {
+                Request request = new Request(requestHead, body, config.getMultipartFileThreshold());
+                request.setRemoteAddress(remoteAddress);
+                try {
+                    keepAliveResponse = server.process(request, out, number) && out.isCommitted();
+                } finally {
+                    admission.release(admitted);
+                }
+                if (keepAliveResponse) {
+                    try {
+                        keepAliveResponse = request.discardBody();
+                    } catch (IOException | RuntimeException e) {
+                        // Ответ готов целиком: отправляем его и закрываем соединение
+                        keepAliveResponse = false;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!(e instanceof SocketTimeoutException)) {
+                    System.err.println("Connection error: " + e.getMessage());
+                }
+                // Частично записанный ответ не отправляем, соединение просто закрывается
+                release(out.finish());
+                loop.execute(() -> complete(new ArrayDeque<>(), false));
+                return;
+            } finally {
+                if (bodySelector != null) {
+                    closeQuietly(bodySelector);
+                    bodySelector = null;
+                }
+            }
+            ArrayDeque<Segment> response = out.finish();
+            boolean keep = keepAliveResponse;
+            Consumer<SocketChannel> receiver = out.receiver;
+            loop.execute(() -> {
+                detachTo = receiver;
+                complete(response, keep);
+            });
+        }
+
+        private void complete(ArrayDeque<Segment> response, boolean keep) {
+            processing = false;
+            if (!channel.isOpen()) {
+                release(response);
+                return;
+            }
+            keepAlive = keep;
+            if (pending == null) {
+                pending = response;
+            } else {
+                pending.addAll(response);
+            }
+            try {
+                onWritable();
+            } catch (IOException e) {
+                close();
+            }
+        }
+//stream(ArrayDeque<Segment> part):
+//
+//Порция ответа, которую обработчик отправил через push(), не дожидаясь своего завершения
+        private void stream(ArrayDeque<Segment> part) {
+            if (!channel.isOpen()) {
+                release(part);
+                streamWindow.release();
+                return;
+            }
+            streaming = true;
+            if (pending == null) {
+                pending = part;
+            } else {
+                pending.addAll(part);
+            }
+            try {
+                onWritable();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void onWritable() throws IOException {
+            if (pending == null) {
+                key.interestOps(processing ? 0 : SelectionKey.OP_READ);
+                return;
+            }
+            while (!pending.isEmpty()) {
+                Segment segment = pending.peek();
+                boolean done = segment.bytes() != null ? writeGathered() : segment.writeTo(channel);
+                lastActive = System.currentTimeMillis();
+                if (!done) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (segment.bytes() == null) {
+                    pending.poll().release();
+                }
+            }
+            pending = null;
+            if (streaming) {
+                streaming = false;
+                streamWindow.release();
+            }
+            if (processing) {
+                // Обработчик еще пишет ответ
+                key.interestOps(0);
+                return;
+            }
+            if (detachTo != null) {
+                // Соединение уходит из event loop'а вместе с каналом; сам канал не закрываем
+                key.cancel();
+                leaveLoop();
+                Consumer<SocketChannel> receiver = detachTo;
+                detachTo = null;
+                receiver.accept(channel);
+                return;
+            }
+            if (!keepAlive || draining) {
+                close();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            tryDispatch();
+        }
+//writeGathered():
+//
+//Отправляет идущие подряд байтовые части из начала pending одним write(ByteBuffer[])
+//Отправленные целиком части убираются из pending; true - ушли все собранные части
+        private boolean writeGathered() throws IOException {
+            ByteBuffer[] gather = loop.gather;
+            int n = 0;
+            for (Segment segment : pending) {
+                if (n == gather.length || segment.bytes() == null) break;
+                gather[n++] = segment.bytes();
+            }
+            try {
+                channel.write(gather, 0, n);
+            } finally {
+                Arrays.fill(gather, 0, n, null);
+            }
+            while (n > 0 && !pending.peek().bytes().hasRemaining()) {
+                pending.poll().release();
+                n--;
+            }
+            return n == 0;
+        }
+
+        private void reject(byte[] response) {
+            processing = false;
+            keepAlive = false;
+            pending = new ArrayDeque<>();
+            pending.add(new BytesSegment(ByteBuffer.wrap(response)));
+            try {
+                onWritable();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void leaveLoop() {
+            if (!left) {
+                left = true;
+                connections.decrementAndGet();
+                server.getMetrics().connectionClosed();
+            }
+        }
+
+//readBody():
+//
+//Вызывается потоком обработчика, когда в буфере не осталось байт тела
+//Канал неблокирующий и зарегистрирован в Selector'е event loop'а (с пустым интересом,
+//пока идет обработка), поэтому данных поток ждет на своем bodySelector не дольше
+//keepAliveTimeout, как блокирующий движок с SO_TIMEOUT
+        private void readBody() throws IOException {
+            in.clear();
+            start = 0;
+            while (true) {
+                int read = channel.read(in);
+                if (read == -1) {
+                    throw new EOFException("Connection closed in the middle of a request body");
+                }
+                if (read > 0) {
+                    server.getMetrics().bytesIn(read);
+                    return;
+                }
+                if (bodySelector == null) {
+                    bodySelector = Selector.open();
+                    channel.register(bodySelector, SelectionKey.OP_READ);
+                }
+                if (bodySelector.select(config.getKeepAliveTimeout()) == 0) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Interrupted while reading a request body");
+                    }
+                    if (config.getKeepAliveTimeout() > 0) {
+                        throw new SocketTimeoutException("Request body read timed out");
+                    }
+                }
+                bodySelector.selectedKeys().clear();
+            }
+        }
+//BodyInput:
+//
+//Тело запроса из соединения: ровно length байт (Long.MAX_VALUE для chunked - его
+//конец определяет ChunkedInputStream), сначала из буфера in, затем из канала
+//Байты после тела остаются в буфере для следующего запроса
+        private final class BodyInput extends InputStream {
+            private long remaining;
+
+            BodyInput(long length) {
+                this.remaining = length;
+            }
+
+            @Override
+            public int read() throws IOException {
+                if (remaining == 0) return -1;
+                if (start == in.position()) {
+                    readBody();
+                }
+                remaining--;
+                return in.array()[start++] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] bytes, int off, int len) throws IOException {
+                if (remaining == 0) return -1;
+                if (len == 0) return 0;
+                if (start == in.position()) {
+                    readBody();
+                }
+                int n = (int) Math.min(Math.min(len, remaining), in.position() - start);
+                System.arraycopy(in.array(), start, bytes, off, n);
+                start += n;
+                remaining -= n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(remaining, in.position() - start);
+            }
+
+            @Override
+            public void close() throws IOException {
+                while (remaining > 0) {
+                    if (start == in.position()) {
+                        readBody();
+                    }
+                    int n = (int) Math.min(remaining, in.position() - start);
+                    start += n;
+                    remaining -= n;
+                }
+            }
+        }
+
+        private void grow(int capacity) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(capacity, in.capacity() * 2));
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+
+        void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            leaveLoop();
+            closeQuietly(channel);
+            if (pending != null) {
+                release(pending);
+                pending = null;
+            }
+            // Будим обработчик, ждущий в push(): он увидит закрытый канал
+            streamWindow.release();
+        }
+    }
+//Segment:
+//
+//Часть ответа, ожидающая отправки event loop'ом
+//writeTo() пишет сколько получится без блокировки и возвращает true, когда часть отправлена целиком
+//bytes() - байты части, если она из памяти (такие части event loop собирает в gathering write)
+    private interface Segment {
+        boolean writeTo(SocketChannel channel) throws IOException;
+
+        default ByteBuffer bytes() {
+            return null;
+        }
+
+        default void release() {
+        }
+    }
+
+    private record BytesSegment(ByteBuffer bytes) implements Segment {
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            channel.write(bytes);
+            return !bytes.hasRemaining();
+        }
+    }
+
+    // Буфер из BufferPool, который возвращается в пул после отправки
+    private record PooledSegment(ByteBuffer bytes) implements Segment {
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            channel.write(bytes);
+            return !bytes.hasRemaining();
+        }
+
+        @Override
+        public void release() {
+            BufferPool.release(bytes);
+        }
+    }
+
+    private static final class FileSegment implements Segment {
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        FileSegment(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.remaining = count;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            while (remaining > 0) {
+                long sent = file.transferTo(position, remaining, channel);
+                if (sent == 0) {
+                    if (position >= file.size()) {
+                        throw new IOException("File was truncated while sending");
+                    }
+                    return false;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+            return true;
+        }
+
+        @Override
+        public void release() {
+            closeQuietly(file);
+        }
+    }
+//BufferedResponse:
+//
+//ResponseStream для NIO-движка: байты копятся в direct буферах из BufferPool (SegmentOutput),
+//тело из ByteBuffer (writeBody) не копируется, а ставится в очередь как есть,
+//а файл не читается, только открывается и запоминается как FileSegment до отправки event loop'ом
+//push() передает накопленное event loop'у сразу; следующий push() ждет, пока
+//предыдущая порция не уйдет в сокет, так что медленный клиент притормаживает обработчик,
+//а не раздувает очередь в памяти
+    private static final class BufferedResponse extends ResponseStream {
+        private final SegmentOutput buffer;
+        private final Connection connection;
+        private final ArrayDeque<Segment> segments;
+        private Consumer<SocketChannel> receiver;
+
+        BufferedResponse(Connection connection) {
+            this(new SegmentOutput(), connection);
+        }
+
+        private BufferedResponse(SegmentOutput buffer, Connection connection) {
+            super(buffer, null, RESPONSE_BUFFER_SIZE);
+            this.buffer = buffer;
+            this.segments = buffer.segments;
+            this.connection = connection;
+        }
+
+        // Канал передается получателю event loop'ом, когда ответ будет отправлен целиком
+        @Override
+        public boolean detach(Consumer<SocketChannel> receiver) throws IOException {
+            drainBuffer();
+            markDetached();
+            this.receiver = receiver;
+            return true;
+        }
+
+        @Override
+        public void push() throws IOException {
+            drainBuffer();
+            if (segments.isEmpty()) return;
+            try {
+                connection.streamWindow.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while streaming a response");
+            }
+            if (!connection.channel.isOpen()) {
+                connection.streamWindow.release();
+                throw new IOException("Connection is closed");
+            }
+            ArrayDeque<Segment> part = new ArrayDeque<>(segments);
+            segments.clear();
+            connection.loop.execute(() -> connection.stream(part));
+        }
+
+        @Override
+        protected void writeFileRegion(Path file, long position, long count) throws IOException {
+            drainBuffer();
+            segments.add(new FileSegment(FileChannel.open(file, StandardOpenOption.READ), position, count));
+        }
+
+        // body - duplicate() из writeBody: его позицию двигает только event loop
+        @Override
+        protected void writeDirect(ByteBuffer body) throws IOException {
+            drainBuffer();
+            segments.add(new BytesSegment(body));
+        }
+
+        ArrayDeque<Segment> finish() {
+            try {
+                drainBuffer();
+            } catch (IOException e) {
+                // SegmentOutput не бросает IOException
+            }
+            buffer.close();
+            return segments;
+        }
+
+        private void drainBuffer() throws IOException {
+            flush();
+            buffer.seal();
+        }
+    }
+//SegmentOutput:
+//
+//Пишет байты в direct буферы из BufferPool: заполненный буфер сразу становится
+//PooledSegment'ом в segments, seal() добавляет туда и текущий
+//Event loop после отправки возвращает буферы в пул
+    private static final class SegmentOutput extends OutputStream {
+        private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+        private ByteBuffer current;
+
+        @Override
+        public void write(int b) {
+            ensureRemaining().put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                ByteBuffer target = ensureRemaining();
+                int n = Math.min(len, target.remaining());
+                target.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        // Переносит записанное в segments; пустой буфер остается для следующих записей
+        void seal() {
+            if (current != null && current.position() > 0) {
+                segments.add(new PooledSegment(current.flip()));
+                current = null;
+            }
+        }
+
+        // Несданный буфер возвращается в пул
+        @Override
+        public void close() {
+            if (current != null) {
+                BufferPool.release(current);
+                current = null;
+            }
+        }
+
+        private ByteBuffer ensureRemaining() {
+            if (current != null && current.hasRemaining()) {
+                return current;
+            }
+            seal();
+            current = BufferPool.acquire();
+            return current;
+        }
+    }
+
+    private static void release(ArrayDeque<Segment> segments) {
+        for (Segment segment : segments) {
+            segment.release();
+        }
+    }
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Соединение уже закрыто клиентом
+        }
+    }
+}
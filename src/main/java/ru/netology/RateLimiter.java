@@ -0,0 +1,86 @@
+package ru.netology;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+//RateLimiter:
+//
+//Ограничение частоты запросов с одного IP: token bucket на каждый адрес
+//В ведре до burst жетонов, они пополняются со скоростью rate в секунду, запрос забирает один
+//Ведра лежат в полосатой (striped) таблице: адрес попадает в одну из STRIPES полос
+//со своим HashMap и своей блокировкой, поэтому запросы с разных адресов почти не конкурируют
+//Ведро, которое успело наполниться целиком, ничем не отличается от отсутствующего;
+//такие ведра выбрасываются, когда полоса разрастается, так что память ограничена
+final class RateLimiter {
+    private static final int STRIPES = 64;
+    private static final int MAX_STRIPE_SIZE = 4096;
+
+    private final double tokensPerNano;
+    private final double burst;
+    // Через сколько наносекунд простоя пустое ведро снова полное
+    private final long refillNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    RateLimiter(double rate, int burst) {
+        this.tokensPerNano = rate / 1e9;
+        this.burst = burst;
+        this.refillNanos = (long) Math.ceil(burst / tokensPerNano);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+//tryAcquire(String address, long now):
+//
+//Забирает жетон из ведра адреса; false - жетонов нет, запрос нужно отклонить
+//now - System.nanoTime()
+    boolean tryAcquire(String address, long now) {
+        int hash = address.hashCode();
+        Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        synchronized (stripe) {
+            Bucket bucket = stripe.buckets.get(address);
+            if (bucket == null) {
+                if (stripe.buckets.size() >= MAX_STRIPE_SIZE) {
+                    stripe.evict(now, refillNanos);
+                }
+                bucket = new Bucket(burst, now);
+                stripe.buckets.put(address, bucket);
+            } else {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.updated) * tokensPerNano);
+                bucket.updated = now;
+            }
+            if (bucket.tokens < 1) {
+                return false;
+            }
+            bucket.tokens--;
+            return true;
+        }
+    }
+
+    private static final class Stripe {
+        final Map<String, Bucket> buckets = new HashMap<>();
+
+        // Сначала уходят полные ведра; если адресов слишком много и все активны, полоса сбрасывается
+        void evict(long now, long refillNanos) {
+            Iterator<Bucket> iterator = buckets.values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().updated >= refillNanos) {
+                    iterator.remove();
+                }
+            }
+            if (buckets.size() >= MAX_STRIPE_SIZE) {
+                buckets.clear();
+            }
+        }
+    }
+
+    private static final class Bucket {
+        double tokens;
+        long updated;
+
+        Bucket(double tokens, long updated) {
+            this.tokens = tokens;
+            this.updated = updated;
+        }
+    }
+}
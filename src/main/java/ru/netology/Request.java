@@ -1,18 +1,47 @@
 package ru.netology;
 
-import org.apache.hc.core5.net.URIBuilder;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public class Request {
+    public static final String HTTP_1_0 = "HTTP/1.0";
+    public static final String HTTP_1_1 = "HTTP/1.1";
+    private static final String[] NO_PATH_PARAMS = new String[0];
+    // Тело x-www-form-urlencoded читается в память целиком, поэтому ограничено, как поле multipart
+    static final int MAX_FORM_SIZE = MultipartParser.MAX_FIELD_SIZE;
+    // Сколько непрочитанного обработчиком тела сервер пропускает ради keep-alive;
+    // большее (или chunked) тело дешевле не дочитывать, а закрыть соединение
+    static final long MAX_DISCARD_SIZE = 64 * 1024;
+
     private final String method;
     private final String path;
-    private final Map<String, String> queryParams;
-    private final Map<String, String> formParams;
-    private final Map<String, String> multipartParams;
-    private final Map<String, byte[]> fileParams;
+    private final String protocol;
+    // Голова запроса в байтах; заголовки и Query параметры декодируются из нее по требованию
+    private final RequestHead head;
+    private String remoteAddress;
+    private Map<String, String> headers;
+    private Map<String, String> queryParams;
+    // Параметры пути из шаблона маршрута (/messages/{id}): имена и смещения значений в path;
+    // строки создаются только при обращении
+    private String[] pathParamNames = NO_PATH_PARAMS;
+    private int[] pathParamBounds;
+    // Тело читается из соединения только по требованию обработчика;
+    // формы и multipart разбираются при первом обращении к их параметрам (null - еще не разобраны)
+    private final InputStream body;
+    private final int multipartFileThreshold;
+    private boolean bodyConsumed;
+    private Map<String, String> formParams;
+    private Map<String, String> multipartParams;
+    private Map<String, FilePart> fileParams;
 //Конструкторы:
 //
 //Request(String method, String path): базовый конструктор, инициализирует все
@@ -21,20 +50,47 @@ public class Request {
     public Request(String method, String path) {
         this.method = method;
         this.path = path;
+        this.protocol = HTTP_1_0;
+        this.head = null;
+        this.body = InputStream.nullInputStream();
+        this.multipartFileThreshold = 0;
+        this.headers = new HashMap<>();
         this.queryParams = new HashMap<>();
         this.formParams = new HashMap<>();
         this.multipartParams = new HashMap<>();
         this.fileParams = new HashMap<>();
     }
 
-    public Request(String method, String path, Map<String, String> queryParams, Map<String, String> formParams, Map<String, String> multipartParams, Map<String, byte[]> fileParams) {
+    public Request(String method, String path, Map<String, String> queryParams, Map<String, String> formParams, Map<String, String> multipartParams, Map<String, FilePart> fileParams) {
+        this(method, path, HTTP_1_1, new HashMap<>(), queryParams, formParams, multipartParams, fileParams);
+    }
+
+    public Request(String method, String path, String protocol, Map<String, String> headers, Map<String, String> queryParams, Map<String, String> formParams, Map<String, String> multipartParams, Map<String, FilePart> fileParams) {
         this.method = method;
         this.path = path;
+        this.protocol = protocol;
+        this.head = null;
+        this.body = InputStream.nullInputStream();
+        this.multipartFileThreshold = 0;
+        this.headers = headers;
         this.queryParams = queryParams;
         this.formParams = formParams;
         this.multipartParams = multipartParams;
         this.fileParams = fileParams;
     }
+//Request(RequestHead head, InputStream body, int multipartFileThreshold):
+//
+//Конструктор для сервера: метод, путь и протокол берутся из разобранной головы,
+//заголовки, Query параметры и тело будут декодированы при первом обращении
+//body ограничен Content-Length (или концом chunked тела) и читается прямо из соединения
+    Request(RequestHead head, InputStream body, int multipartFileThreshold) {
+        this.method = head.method();
+        this.path = head.path();
+        this.protocol = head.protocol();
+        this.head = head;
+        this.body = body;
+        this.multipartFileThreshold = multipartFileThreshold;
+    }
 
     public String getMethod() {
         return method;
@@ -43,73 +99,256 @@ public class Request {
     public String getPath() {
         return path;
     }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    // IP-адрес клиента или null, если запрос создан не сервером
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    void setRemoteAddress(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    // Request target как пришел от клиента: путь вместе с Query (для журнала запросов)
+    String getTarget() {
+        return head != null ? head.target() : path;
+    }
+//Заголовки:
+//
+//Имена хранятся в нижнем регистре, поиск не зависит от регистра
+//getHeader(): значение заголовка или null
+    public Map<String, String> getHeaders() {
+        if (headers == null) {
+            headers = head.headers();
+        }
+        return headers;
+    }
+
+    public String getHeader(String name) {
+        if (headers == null) {
+            return head.header(name);
+        }
+        return headers.get(name.toLowerCase());
+    }
+//isKeepAlive():
+//
+//HTTP/1.1: соединение постоянное, пока клиент не прислал Connection: close
+//HTTP/1.0: постоянное, только если клиент явно прислал Connection: keep-alive
+    public boolean isKeepAlive() {
+        String connection = getHeader("connection");
+        if (HTTP_1_1.equals(protocol)) {
+            return !hasToken(connection, "close");
+        }
+        return hasToken(connection, "keep-alive");
+    }
+
+    private static boolean hasToken(String headerValue, String token) {
+        if (headerValue == null) return false;
+        for (String part : headerValue.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) return true;
+        }
+        return false;
+    }
 //Геттеры для параметров:
 //
 //getQueryParam(): получает Query параметр из URL
 //getFormParam(): получает параметр из x-www-form-urlencoded тела
 //getMultipartParam(): получает текстовое поле из multipart тела
-//getFileParam(): получает содержимое файла из multipart тела
+//getFileParam(): получает файл из multipart тела (содержимое читается через FilePart)
+//Тело формы или multipart разбирается при первом вызове любого из трех последних геттеров
+//Ошибка в теле (400, 413) или чтения из соединения - UncheckedIOException, сервер
+//превращает ее в ответ с ошибкой
     public Map<String, String> getFormParams() {
+        decodeBody();
         return formParams;
     }
 
     public String getFormParam(String name) {
-        return formParams.get(name);
+        return getFormParams().get(name);
     }
 
     public Map<String, String> getMultipartParams() {
+        decodeBody();
         return multipartParams;
     }
 
     public String getMultipartParam(String name) {
-        return multipartParams.get(name);
+        return getMultipartParams().get(name);
     }
 
-    public Map<String, byte[]> getFileParams() {
+    public Map<String, FilePart> getFileParams() {
+        decodeBody();
         return fileParams;
     }
 
-    public byte[] getFileParam(String name) {
-        return fileParams.get(name);
+    public FilePart getFileParam(String name) {
+        return getFileParams().get(name);
+    }
+//getBody():
+//
+//Тело запроса как поток, для обработчиков, которым нужны сырые байты или потоковая обработка
+//Читается один раз; если тело уже разобрано как форма или multipart, поток пуст
+//Непрочитанный остаток сервер пропустит сам
+    public InputStream getBody() {
+        if (bodyConsumed) {
+            return InputStream.nullInputStream();
+        }
+        bodyConsumed = true;
+        return body;
+    }
+
+    public ReadableByteChannel getBodyChannel() {
+        return Channels.newChannel(getBody());
+    }
+//decodeBody():
+//
+//Разбирает тело POST запроса по Content-Type:
+//application/x-www-form-urlencoded: &-параметры (тело не больше MAX_FORM_SIZE, иначе 413)
+//multipart/form-data: MultipartParser, большие файлы уходят во временные файлы
+    private void decodeBody() {
+        if (formParams != null) return;
+        formParams = new HashMap<>();
+        multipartParams = new HashMap<>();
+        fileParams = new HashMap<>();
+
+        String contentType = getHeader("content-type");
+        if (!"POST".equals(method) || contentType == null || bodyConsumed) return;
+        try {
+            if (contentType.startsWith("application/x-www-form-urlencoded")) {
+                bodyConsumed = true;
+                byte[] bytes = body.readNBytes(MAX_FORM_SIZE + 1);
+                if (bytes.length > MAX_FORM_SIZE) {
+                    throw new RequestParseException(413, "Form body is larger than " + MAX_FORM_SIZE + " bytes");
+                }
+                String formBody = new String(bytes, UTF_8);
+                if (!formBody.isEmpty()) {
+                    for (String param : formBody.split("&")) {
+                        String[] keyValue = param.split("=", 2);
+                        formParams.put(keyValue[0], keyValue.length == 2 ? keyValue[1] : "");
+                    }
+                }
+            } else if (contentType.startsWith("multipart/form-data")) {
+                String boundary = boundary(contentType);
+                if (boundary != null) {
+                    bodyConsumed = true;
+                    new MultipartParser(body, boundary, multipartFileThreshold).parse(multipartParams, fileParams);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Параметр boundary из Content-Type, кавычки снимаются
+    private static String boundary(String contentType) {
+        int index = contentType.toLowerCase(Locale.ROOT).indexOf("boundary=");
+        if (index == -1) return null;
+        int from = index + 9;
+        int to = contentType.indexOf(';', from);
+        String boundary = contentType.substring(from, to == -1 ? contentType.length() : to).trim();
+        if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        return boundary;
+    }
+    // Удаляет временные файлы загрузок после обработки запроса
+    void deleteTemporaryFiles() {
+        if (fileParams == null) return;
+        for (FilePart part : fileParams.values()) {
+            part.delete();
+        }
+    }
+
+//hasLargeUnreadBody():
+//
+//Обработчик не брал тело, а оно больше MAX_DISCARD_SIZE или его длина неизвестна (chunked)
+//Ответ на такой запрос уходит с Connection: close (см. ResponseHeaders.end())
+    boolean hasLargeUnreadBody() {
+        if (bodyConsumed || head == null) return false;
+        try {
+            return head.hasHeader("transfer-encoding") || head.contentLength() > MAX_DISCARD_SIZE;
+        } catch (RequestParseException e) {
+            // Content-Length уже проверен сервером при чтении головы
+            return true;
+        }
+    }
+//discardBody():
+//
+//Пропускает непрочитанный остаток тела, чтобы он не попал в следующий запрос
+//Читает не больше MAX_DISCARD_SIZE байт; false - тело не кончилось, соединение надо закрыть
+    boolean discardBody() throws IOException {
+        if (body.read() == -1) {
+            return true;
+        }
+        byte[] skip = new byte[8 * 1024];
+        long discarded = 1;
+        int n;
+        while ((n = body.read(skip)) != -1) {
+            discarded += n;
+            if (discarded > MAX_DISCARD_SIZE) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public Map<String, String> getQueryParams() {
+        if (queryParams == null) {
+            queryParams = head.queryParams();
+        }
         return queryParams;
     }
 
     public String getQueryParam(String name) {
-        return queryParams.get(name);
+        return getQueryParams().get(name);
     }
-//parse(String requestLine):
+//Параметры пути:
 //
-//Разбирает HTTP request line
-//Извлекает метод и URL
-//Парсит Query параметры из URL
-//Возвращает Request с пустыми коллекциями для тела (обрабатывается в Server)
-    public static Request parse(String requestLine) throws URISyntaxException {
-        String[] parts = requestLine.split(" ");
-        if (parts.length < 2) {
-            throw new IllegalArgumentException("Invalid request line: " + requestLine);
+//getPathParam("id") для маршрута /messages/{id} и пути /messages/42 вернет "42"
+//Остаток пути, совпавший с "*" в конце маршрута, доступен как getPathParam("*")
+    public String getPathParam(String name) {
+        for (int i = 0; i < pathParamNames.length; i++) {
+            if (pathParamNames[i].equals(name)) {
+                return path.substring(pathParamBounds[2 * i], pathParamBounds[2 * i + 1]);
+            }
         }
-        
-        String method = parts[0];
-        URI uri = new URI(parts[1]);
-        String path = uri.getPath();
-        
-        Map<String, String> queryParams = new HashMap<>();
-        if (uri.getQuery() != null) {
-            String[] params = uri.getQuery().split("&");
-            for (String param : params) {
-                String[] keyValue = param.split("=", 2);
-                if (keyValue.length == 2) {
-                    queryParams.put(keyValue[0], keyValue[1]);
-                } else {
-                    queryParams.put(keyValue[0], "");
-                }
+        return null;
+    }
+
+    public Map<String, String> getPathParams() {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String name : pathParamNames) {
+            params.put(name, getPathParam(name));
+        }
+        return params;
+    }
+
+    // Вызывается сервером после выбора маршрута
+    void setPathParams(String[] names, int[] bounds) {
+        this.pathParamNames = names;
+        this.pathParamBounds = bounds;
+    }
+//parse(String requestLine):
+//
+//Разбирает HTTP request line тем же RequestParser, что и сервер
+//Извлекает метод, путь и протокол; Query параметры декодируются при обращении
+//Возвращает Request без тела
+    public static Request parse(String requestLine) {
+        byte[] bytes = (requestLine + "\r\n\r\n").getBytes(UTF_8);
+        RequestParser parser = new RequestParser(bytes.length + 1, 0);
+        try {
+            int length = parser.parse(bytes, 0, bytes.length);
+            if (length < 0) {
+                throw new IllegalArgumentException("Invalid request line: " + requestLine);
             }
+            return new Request(parser.finish(bytes, 0, length), InputStream.nullInputStream(), 0);
+        } catch (RequestParseException e) {
+            throw new IllegalArgumentException("Invalid request line: " + requestLine, e);
         }
-        
-        return new Request(method, path, queryParams, new HashMap<>(), new HashMap<>(), new HashMap<>());
     }
 
     @Override
@@ -117,10 +356,13 @@ public class Request {
         return "Request{" +
                 "method='" + method + '\'' +
                 ", path='" + path + '\'' +
-                ", queryParams=" + queryParams +
-                ", formParams=" + formParams +
-                ", multipartParams=" + multipartParams +
-                ", fileParams=" + fileParams +
+                ", protocol='" + protocol + '\'' +
+                ", headers=" + getHeaders() +
+                ", queryParams=" + getQueryParams() +
+                // toString() не должен сам читать тело
+                (formParams == null
+                        ? ", body=" + (bodyConsumed ? "<read>" : "<not read>")
+                        : ", formParams=" + formParams + ", multipartParams=" + multipartParams + ", fileParams=" + fileParams) +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,210 @@
+package ru.netology;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//RequestHead:
+//
+//Разобранная голова запроса: копия байтов request line и заголовков плюс смещения
+//Путь, Query параметры и значения заголовков декодируются только по требованию
+//Поиск заголовка сравнивает байты без учета регистра и ничего не создает,
+//пока значение не найдено
+final class RequestHead {
+    private final byte[] data;
+    private final String method;
+    private final int targetStart;
+    private final int targetEnd;
+    private final String protocol;
+    private final int[] headers;
+    private final int headerCount;
+    private final int pathStart;
+    private final int pathEnd;
+    private final int queryStart;
+    private final int queryEnd;
+    private String path;
+
+    RequestHead(byte[] data, String method, int targetStart, int targetEnd, String protocol, int[] headers, int headerCount) {
+        this.data = data;
+        this.method = method;
+        this.targetStart = targetStart;
+        this.targetEnd = targetEnd;
+        this.protocol = protocol;
+        this.headers = headers;
+        this.headerCount = headerCount;
+
+        // absolute-form (http://host/path) сводим к пути
+        int from = targetStart;
+        if (startsWith(data, from, targetEnd, "http://") || startsWith(data, from, targetEnd, "https://")) {
+            from = indexOf(data, indexOf(data, from, targetEnd, (byte) ':') + 3, targetEnd, (byte) '/');
+            if (from == -1) from = targetEnd;
+        }
+        int fragment = indexOf(data, from, targetEnd, (byte) '#');
+        int end = fragment == -1 ? targetEnd : fragment;
+        int question = indexOf(data, from, end, (byte) '?');
+        this.pathStart = from;
+        this.pathEnd = question == -1 ? end : question;
+        this.queryStart = question == -1 ? -1 : question + 1;
+        this.queryEnd = end;
+    }
+
+    String method() {
+        return method;
+    }
+
+    String protocol() {
+        return protocol;
+    }
+
+    // Request target как пришел от клиента (для логов и ошибок)
+    String target() {
+        return new String(data, targetStart, targetEnd - targetStart, UTF_8);
+    }
+//path():
+//
+//Путь без Query, с декодированными %XX (как URI.getPath())
+    String path() {
+        if (path == null) {
+            path = pathStart == pathEnd ? "/" : decode(data, pathStart, pathEnd);
+        }
+        return path;
+    }
+//queryParams():
+//
+//Разбирает Query параметры из байтов запроса: &-пары, %XX декодируются
+    Map<String, String> queryParams() {
+        Map<String, String> params = new HashMap<>();
+        if (queryStart == -1) return params;
+        int from = queryStart;
+        while (from <= queryEnd) {
+            int amp = indexOf(data, from, queryEnd, (byte) '&');
+            int to = amp == -1 ? queryEnd : amp;
+            if (to > from) {
+                int eq = indexOf(data, from, to, (byte) '=');
+                if (eq == -1) {
+                    params.put(decode(data, from, to), "");
+                } else {
+                    params.put(decode(data, from, eq), decode(data, eq + 1, to));
+                }
+            }
+            from = to + 1;
+        }
+        return params;
+    }
+//header(String name):
+//
+//Значение заголовка или null; повторяющиеся заголовки склеиваются через ", "
+    String header(String name) {
+        String value = null;
+        for (int i = 0; i < headerCount; i++) {
+            int offset = i * 4;
+            if (equalsIgnoreCase(data, headers[offset], headers[offset + 1], name)) {
+                String next = new String(data, headers[offset + 2], headers[offset + 3] - headers[offset + 2], UTF_8);
+                value = value == null ? next : value + ", " + next;
+            }
+        }
+        return value;
+    }
+
+    boolean hasHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (equalsIgnoreCase(data, headers[i * 4], headers[i * 4 + 1], name)) return true;
+        }
+        return false;
+    }
+//contentLength():
+//
+//Content-Length без создания строк; -1, если заголовка нет
+    long contentLength() throws RequestParseException {
+        long length = -1;
+        for (int i = 0; i < headerCount; i++) {
+            int offset = i * 4;
+            if (!equalsIgnoreCase(data, headers[offset], headers[offset + 1], "content-length")) continue;
+            int from = headers[offset + 2];
+            int to = headers[offset + 3];
+            if (from == to || to - from > 18) {
+                throw new RequestParseException(400, "Invalid Content-Length");
+            }
+            long value = 0;
+            for (int j = from; j < to; j++) {
+                if (data[j] < '0' || data[j] > '9') {
+                    throw new RequestParseException(400, "Invalid Content-Length");
+                }
+                value = value * 10 + (data[j] - '0');
+            }
+            if (length != -1 && length != value) {
+                throw new RequestParseException(400, "Conflicting Content-Length headers");
+            }
+            length = value;
+        }
+        return length;
+    }
+
+    // Все заголовки, имена в нижнем регистре
+    Map<String, String> headers() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            int offset = i * 4;
+            String name = new String(data, headers[offset], headers[offset + 1] - headers[offset], UTF_8).toLowerCase(Locale.ROOT);
+            String value = new String(data, headers[offset + 2], headers[offset + 3] - headers[offset + 2], UTF_8);
+            map.merge(name, value, (first, next) -> first + ", " + next);
+        }
+        return map;
+    }
+//decode(byte[] data, int from, int to):
+//
+//Декодирует %XX как UTF-8; без % просто создает строку
+    static String decode(byte[] data, int from, int to) {
+        int percent = indexOf(data, from, to, (byte) '%');
+        if (percent == -1) {
+            return new String(data, from, to - from, UTF_8);
+        }
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(to - from);
+        decoded.write(data, from, percent - from);
+        for (int i = percent; i < to; i++) {
+            int hi;
+            int lo;
+            if (data[i] == '%' && i + 2 < to && (hi = Character.digit(data[i + 1], 16)) >= 0
+                    && (lo = Character.digit(data[i + 2], 16)) >= 0) {
+                decoded.write((hi << 4) | lo);
+                i += 2;
+            } else {
+                decoded.write(data[i]);
+            }
+        }
+        return decoded.toString(UTF_8);
+    }
+
+    private static boolean equalsIgnoreCase(byte[] data, int from, int to, String name) {
+        if (to - from != name.length()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            int b = data[from + i];
+            int c = name.charAt(i);
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (b != c) return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] data, int from, int to, String prefix) {
+        if (to - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            int b = data[from + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) return i;
+        }
+        return -1;
+    }
+}
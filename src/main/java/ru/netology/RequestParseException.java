@@ -0,0 +1,22 @@
+package ru.netology;
+
+import java.io.IOException;
+
+//RequestParseException:
+//
+//Запрос не удалось разобрать или он нарушает лимиты
+//status - код ответа, который нужно отправить клиенту перед закрытием соединения
+public class RequestParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public RequestParseException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
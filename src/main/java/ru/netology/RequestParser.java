@@ -0,0 +1,206 @@
+package ru.netology;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+//RequestParser:
+//
+//Инкрементальный разбор request line и заголовков прямо из байтов буфера соединения
+//Данные могут приходить частями: parse() запоминает, докуда уже дочитал, и при
+//следующем вызове продолжает с того же места (так он работает и в NIO-движке)
+//Строки не создаются: запоминаются только смещения имен и значений заголовков,
+//декодирование откладывается до обращения обработчика (см. RequestHead)
+//Один парсер на соединение, переиспользуется между запросами
+final class RequestParser {
+    static final String[] KNOWN_METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+
+    private enum State {
+        REQUEST_LINE,
+        HEADERS
+    }
+
+    private final int maxHeaderSize;
+    private final int maxHeaders;
+
+    private State state = State.REQUEST_LINE;
+    // Все смещения - относительно начала запроса в буфере
+    private int scan;
+    private int lineStart;
+    private String method;
+    private int targetStart;
+    private int targetEnd;
+    private String protocol;
+    // По 4 числа на заголовок: начало и конец имени, начало и конец значения
+    private int[] headers = new int[4 * 16];
+    private int headerCount;
+    // Время в parse() для текущего запроса (данные могут приходить за несколько вызовов)
+    private long elapsed;
+    private long lastParseNanos;
+
+    RequestParser(int maxHeaderSize, int maxHeaders) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaders = maxHeaders;
+    }
+//parse(byte[] buffer, int start, int end):
+//
+//Разбирает байты [start, end), где start - начало запроса (при повторных
+//вызовах для одного запроса start должен указывать на те же данные)
+//Возвращает длину головы запроса вместе с пустой строкой или -1, если данных пока мало
+    int parse(byte[] buffer, int start, int end) throws RequestParseException {
+        long started = System.nanoTime();
+        try {
+            return parseLines(buffer, start, end);
+        } finally {
+            elapsed += System.nanoTime() - started;
+        }
+    }
+
+    private int parseLines(byte[] buffer, int start, int end) throws RequestParseException {
+        int length = end - start;
+        while (true) {
+            int lineFeed = -1;
+            for (int i = scan; i < length; i++) {
+                if (buffer[start + i] == '\n') {
+                    lineFeed = i;
+                    break;
+                }
+            }
+            if (lineFeed == -1) {
+                scan = length;
+                if (length >= maxHeaderSize) {
+                    throw new RequestParseException(431, "Request header is larger than " + maxHeaderSize + " bytes");
+                }
+                return -1;
+            }
+            if (lineFeed >= maxHeaderSize) {
+                throw new RequestParseException(431, "Request header is larger than " + maxHeaderSize + " bytes");
+            }
+
+            int lineEnd = lineFeed > lineStart && buffer[start + lineFeed - 1] == '\r' ? lineFeed - 1 : lineFeed;
+            if (state == State.REQUEST_LINE) {
+                parseRequestLine(buffer, start, lineStart, lineEnd);
+                state = State.HEADERS;
+            } else if (lineEnd == lineStart) {
+                return lineFeed + 1;
+            } else {
+                parseHeader(buffer, start, lineStart, lineEnd);
+            }
+            lineStart = lineFeed + 1;
+            scan = lineStart;
+        }
+    }
+//finish(byte[] buffer, int start, int length):
+//
+//Копирует голову запроса в отдельный массив (буфер соединения будет переиспользован)
+//и сбрасывает парсер для следующего запроса
+    RequestHead finish(byte[] buffer, int start, int length) {
+        byte[] data = Arrays.copyOfRange(buffer, start, start + length);
+        RequestHead head = new RequestHead(data, method, targetStart, targetEnd, protocol,
+                Arrays.copyOf(headers, headerCount * 4), headerCount);
+        lastParseNanos = elapsed;
+        reset();
+        return head;
+    }
+
+    // Сколько занял разбор последней головы, отданной finish() (для Metrics)
+    long getLastParseNanos() {
+        return lastParseNanos;
+    }
+
+    void reset() {
+        state = State.REQUEST_LINE;
+        scan = 0;
+        lineStart = 0;
+        method = null;
+        protocol = null;
+        headerCount = 0;
+        elapsed = 0;
+    }
+
+    // Парсер посреди запроса: часть головы уже прочитана
+    boolean isInProgress() {
+        return scan > 0;
+    }
+
+    private void parseRequestLine(byte[] buffer, int start, int from, int to) throws RequestParseException {
+        int firstSpace = indexOf(buffer, start + from, start + to, (byte) ' ');
+        if (firstSpace <= start + from) {
+            throw new RequestParseException(400, "Invalid request line");
+        }
+        int secondSpace = indexOf(buffer, firstSpace + 1, start + to, (byte) ' ');
+        int targetLimit = secondSpace == -1 ? start + to : secondSpace;
+        if (targetLimit == firstSpace + 1) {
+            throw new RequestParseException(400, "Invalid request line");
+        }
+
+        method = method(buffer, start + from, firstSpace);
+        targetStart = firstSpace + 1 - start;
+        targetEnd = targetLimit - start;
+        if (secondSpace == -1) {
+            // Запрос без версии (HTTP/0.9) обслуживаем как HTTP/1.0
+            protocol = Request.HTTP_1_0;
+        } else if (equals(buffer, secondSpace + 1, start + to, Request.HTTP_1_1)) {
+            protocol = Request.HTTP_1_1;
+        } else if (equals(buffer, secondSpace + 1, start + to, Request.HTTP_1_0)) {
+            protocol = Request.HTTP_1_0;
+        } else {
+            throw new RequestParseException(505, "Unsupported protocol");
+        }
+    }
+
+    private void parseHeader(byte[] buffer, int start, int from, int to) throws RequestParseException {
+        if (headerCount == maxHeaders) {
+            throw new RequestParseException(431, "More than " + maxHeaders + " request headers");
+        }
+        int colon = indexOf(buffer, start + from, start + to, (byte) ':');
+        if (colon <= start + from) {
+            throw new RequestParseException(400, "Invalid header line");
+        }
+        for (int i = start + from; i < colon; i++) {
+            // Пробел перед двоеточием и obs-fold запрещены (RFC 9112 5.1, 5.2)
+            if (buffer[i] == ' ' || buffer[i] == '\t') {
+                throw new RequestParseException(400, "Invalid header name");
+            }
+        }
+        int valueStart = colon + 1;
+        int valueEnd = start + to;
+        while (valueStart < valueEnd && (buffer[valueStart] == ' ' || buffer[valueStart] == '\t')) valueStart++;
+        while (valueEnd > valueStart && (buffer[valueEnd - 1] == ' ' || buffer[valueEnd - 1] == '\t')) valueEnd--;
+
+        if (headers.length < (headerCount + 1) * 4) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+        int offset = headerCount * 4;
+        headers[offset] = from;
+        headers[offset + 1] = colon - start;
+        headers[offset + 2] = valueStart - start;
+        headers[offset + 3] = valueEnd - start;
+        headerCount++;
+    }
+
+    // Для распространенных методов возвращает константу вместо новой строки
+    private static String method(byte[] buffer, int from, int to) {
+        for (String known : KNOWN_METHODS) {
+            if (equals(buffer, from, to, known)) {
+                return known;
+            }
+        }
+        return new String(buffer, from, to - from, US_ASCII);
+    }
+
+    private static boolean equals(byte[] buffer, int from, int to, String expected) {
+        if (to - from != expected.length()) return false;
+        for (int i = 0; i < expected.length(); i++) {
+            if (buffer[from + i] != expected.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buffer, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,101 @@
+package ru.netology;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+//ResponseHeaders:
+//
+//Готовые байты строк статуса и частых заголовков для методов отправки Server
+//Ответ собирается из этих массивов без склейки строк и getBytes() на каждый запрос;
+//Content-Length пишется цифрами прямо в буфер ResponseStream (writeContentLength)
+//Строка статуса всегда пишется первым write(), по ней ResponseStream узнает код ответа
+final class ResponseHeaders {
+    static final byte[] OK = ascii("HTTP/1.1 200 OK\r\n");
+    static final byte[] NOT_FOUND = ascii("HTTP/1.1 404 Not Found\r\n" +
+            "Content-Length: 0\r\n");
+    static final byte[] METHOD_NOT_ALLOWED = ascii("HTTP/1.1 405 Method Not Allowed\r\n" +
+            "Allow: ");
+    // Завершает Allow у 405: ответ без тела
+    static final byte[] ALLOW_END = ascii("\r\n" +
+            "Content-Length: 0\r\n");
+    static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    static final byte[] GZIP_VARY = ascii("Content-Encoding: gzip\r\n" +
+            "Vary: Accept-Encoding\r\n");
+    static final byte[] VARY = ascii("Vary: Accept-Encoding\r\n");
+    static final byte[] CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+    // Самое длинное значение long - 19 цифр
+    static final int MAX_CONTENT_LENGTH_SIZE = CONTENT_LENGTH.length + 19 + 2;
+
+    private static final byte[] END_KEEP_ALIVE = ascii("Connection: keep-alive\r\n\r\n");
+    private static final byte[] END_CLOSE = ascii("Connection: close\r\n\r\n");
+    // MIME-типы берутся из таблицы StaticFileHandler и кода обработчиков, их немного;
+    // предел защищает от типов, собранных из данных запроса
+    private static final int MAX_CONTENT_TYPES = 256;
+    private static final ConcurrentHashMap<String, byte[]> CONTENT_TYPES = new ConcurrentHashMap<>();
+
+    private ResponseHeaders() {
+    }
+
+    // "Content-Type: <mimeType>\r\n"
+    static byte[] contentType(String mimeType) {
+        byte[] header = CONTENT_TYPES.get(mimeType);
+        if (header == null) {
+            header = ascii("Content-Type: " + mimeType + "\r\n");
+            if (CONTENT_TYPES.size() < MAX_CONTENT_TYPES) {
+                CONTENT_TYPES.putIfAbsent(mimeType, header);
+            }
+        }
+        return header;
+    }
+
+//end(BufferedOutputStream out):
+//
+//Последний заголовок Connection (по решению о keep-alive) и пустая строка после заголовков
+//Если обработчик не прочитал большое тело запроса, сервер не будет его дочитывать:
+//ответ уходит с Connection: close, и соединение закрывается
+    static byte[] end(BufferedOutputStream out) {
+        if (out instanceof ResponseStream response && response.isKeepAlive()) {
+            Request request = response.getRequest();
+            if (request == null || !request.hasLargeUnreadBody()) {
+                return END_KEEP_ALIVE;
+            }
+            response.disableKeepAlive();
+        }
+        return END_CLOSE;
+    }
+
+    static void writeContentLength(BufferedOutputStream out, long length) throws IOException {
+        if (out instanceof ResponseStream response) {
+            response.writeContentLength(length);
+        } else {
+            out.write(ascii("Content-Length: " + length + "\r\n"));
+        }
+    }
+//putContentLength(byte[] buffer, int offset, long length):
+//
+//Пишет "Content-Length: <length>\r\n" в buffer с позиции offset и возвращает позицию после него
+//В buffer должно быть не меньше MAX_CONTENT_LENGTH_SIZE свободных байт
+    static int putContentLength(byte[] buffer, int offset, long length) {
+        System.arraycopy(CONTENT_LENGTH, 0, buffer, offset, CONTENT_LENGTH.length);
+        int position = offset + CONTENT_LENGTH.length;
+        int digits = 1;
+        for (long rest = length / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + length % 10);
+            length /= 10;
+        }
+        position += digits;
+        buffer[position++] = '\r';
+        buffer[position++] = '\n';
+        return position;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(US_ASCII);
+    }
+}
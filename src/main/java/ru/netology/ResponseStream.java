@@ -0,0 +1,242 @@
+package ru.netology;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+//ResponseStream:
+//
+//Поток ответа одного соединения, переиспользуется между запросами keep-alive
+//Хранит решение о keep-alive для текущего ответа (его читают sendOk/sendNotFound)
+//Считает записанные байты, чтобы сервер знал, ответил ли обработчик,
+//и запоминает код статуса из первой строки ответа (для Metrics)
+//Умеет отправлять файлы напрямую в сокет через FileChannel.transferTo (sendfile),
+//минуя буферы в куче, и отдавать само соединение обработчику (detach)
+//Тело из ByteBuffer (writeBody) уходит вместе с заголовками одним gathering write
+public class ResponseStream extends BufferedOutputStream {
+    private final WritableByteChannel channel;
+    // Массив для gathering write: заголовки и тело; переиспользуется между запросами
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private Request request;
+    private boolean keepAlive;
+    private long written;
+    private int status;
+    private boolean detached;
+
+    public ResponseStream(OutputStream out) {
+        this(out, null);
+    }
+
+    // channel - канал сокета, если он есть (null для потоков без канала)
+    public ResponseStream(OutputStream out, WritableByteChannel channel) {
+        super(out);
+        this.channel = channel;
+    }
+
+    // size - размер буфера потока, не меньше ResponseHeaders.MAX_CONTENT_LENGTH_SIZE
+    protected ResponseStream(OutputStream out, WritableByteChannel channel, int size) {
+        super(out, Math.max(size, ResponseHeaders.MAX_CONTENT_LENGTH_SIZE));
+        this.channel = channel;
+    }
+
+    // Вызывается сервером перед каждым запросом соединения
+    void begin(Request request, boolean keepAlive) {
+        this.request = request;
+        this.keepAlive = keepAlive;
+        this.written = 0;
+        this.status = 0;
+    }
+
+    // Запрос, на который сейчас пишется ответ (нужен, например, для Accept-Encoding)
+    public Request getRequest() {
+        return request;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    // Ответ без длины и без chunked (для HTTP/1.0) заканчивается закрытием соединения
+    void disableKeepAlive() {
+        keepAlive = false;
+    }
+
+    boolean isCommitted() {
+        return written > 0;
+    }
+
+    long getWritten() {
+        return written;
+    }
+
+    // Код статуса текущего ответа или 0, если обработчик еще ничего не записал
+    int getStatus() {
+        return status;
+    }
+
+    boolean isDetached() {
+        return detached;
+    }
+//detach(Consumer<SocketChannel> receiver):
+//
+//Забирает соединение у сервера (SSE, long-poll): все уже записанное уходит клиенту,
+//после чего receiver получает неблокирующий SocketChannel, а сервер больше
+//не читает из соединения и не закрывает его - это делает receiver
+//Возвращает false, если у потока нет сокета; тогда ответ завершается как обычно
+    public boolean detach(Consumer<SocketChannel> receiver) throws IOException {
+        if (!(channel instanceof SocketChannel socket)) {
+            return false;
+        }
+        flush();
+        markDetached();
+        socket.configureBlocking(false);
+        receiver.accept(socket);
+        return true;
+    }
+
+    protected void markDetached() {
+        detached = true;
+        keepAlive = false;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!detached) {
+            super.flush();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureAttached();
+        written++;
+        super.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureAttached();
+        if (written == 0) {
+            status = statusOf(b, off, len);
+        }
+        written += len;
+        super.write(b, off, len);
+    }
+//writeContentLength(long length):
+//
+//Пишет заголовок Content-Length прямо в буфер потока, без промежуточной строки
+    void writeContentLength(long length) throws IOException {
+        ensureAttached();
+        if (buf.length - count < ResponseHeaders.MAX_CONTENT_LENGTH_SIZE) {
+            flush();
+        }
+        int start = count;
+        count = ResponseHeaders.putContentLength(buf, count, length);
+        written += count - start;
+    }
+//writeBody(ByteBuffer body):
+//
+//Пишет оставшиеся байты body (сам body не сдвигается, его можно отдавать многим ответам)
+//Маленькое тело копируется в буфер потока, большое отправляется вместе с
+//накопленными заголовками одним gathering write (см. writeDirect)
+    public void writeBody(ByteBuffer body) throws IOException {
+        ensureAttached();
+        ByteBuffer bytes = body.duplicate();
+        int length = bytes.remaining();
+        written += length;
+        if (length <= buf.length - count) {
+            bytes.get(buf, count, length);
+            count += length;
+            return;
+        }
+        writeDirect(bytes);
+    }
+//writeDirect(ByteBuffer body):
+//
+//Отправляет буфер потока и body, минуя копирование body в буфер
+//Через блокирующий SocketChannel это один вызов write(ByteBuffer[]) (writev);
+//заголовки для него копируются в direct буфер из BufferPool
+//Без канала сокета буфер сбрасывается, а body пишется следом
+    protected void writeDirect(ByteBuffer body) throws IOException {
+        if (!(channel instanceof SocketChannel socket) || !socket.isBlocking() || count > BufferPool.BUFFER_SIZE) {
+            flush();
+            WritableByteChannel target = channel != null ? channel : Channels.newChannel(out);
+            while (body.hasRemaining()) {
+                target.write(body);
+            }
+            return;
+        }
+        ByteBuffer head = BufferPool.acquire();
+        try {
+            head.put(buf, 0, count).flip();
+            count = 0;
+            gather[0] = head;
+            gather[1] = body;
+            while (body.hasRemaining()) {
+                socket.write(gather);
+            }
+        } finally {
+            gather[0] = null;
+            gather[1] = null;
+            BufferPool.release(head);
+        }
+    }
+//push():
+//
+//Отправляет клиенту все записанное, не дожидаясь конца ответа (потоковые ответы)
+//Здесь это обычный flush(); NIO-движок переопределяет его, чтобы передать
+//накопленное event loop'у, пока обработчик продолжает писать
+    public void push() throws IOException {
+        flush();
+    }
+
+    // "HTTP/1.1 200 OK" -> 200; заголовки всегда пишутся одним write()
+    private static int statusOf(byte[] b, int off, int len) {
+        if (len < 12 || b[off] != 'H' || b[off + 8] != ' ') return 0;
+        int status = 0;
+        for (int i = off + 9; i < off + 12; i++) {
+            if (b[i] < '0' || b[i] > '9') return 0;
+            status = status * 10 + (b[i] - '0');
+        }
+        return status;
+    }
+
+    private void ensureAttached() throws IOException {
+        if (detached) {
+            throw new IOException("Connection was detached from the response");
+        }
+    }
+//transferFile(Path file, long position, long count):
+//
+//Отправляет count байт файла, начиная с position, после уже записанных заголовков
+    public void transferFile(Path file, long position, long count) throws IOException {
+        written += count;
+        writeFileRegion(file, position, count);
+    }
+//writeFileRegion(Path file, long position, long count):
+//
+//Сбрасывает буфер и передает файл ядру через transferTo
+//Без канала сокета копирует файл через буфер потока
+    protected void writeFileRegion(Path file, long position, long count) throws IOException {
+        flush();
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = channel != null ? channel : Channels.newChannel(out);
+            while (count > 0) {
+                long sent = source.transferTo(position, count, target);
+                if (sent == 0 && position >= source.size()) {
+                    throw new IOException("File was truncated while sending: " + file);
+                }
+                position += sent;
+                count -= sent;
+            }
+        }
+    }
+}
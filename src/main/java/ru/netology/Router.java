@@ -0,0 +1,360 @@
+package ru.netology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//Router:
+//
+//Неизменяемое radix-дерево маршрутов, собирается Router.Builder'ом при старте сервера
+//и заново при каждом изменении маршрутов (Server подменяет Router целиком)
+//Шаблоны маршрутов:
+//- /index.html - точный путь
+//- /messages/{id} - параметр, совпадает с одним непустым сегментом пути
+//- /files/* - wildcard, совпадает с остатком пути (в том числе пустым), всегда в конце
+//Приоритет при совпадении: точный текст, затем параметр, затем wildcard
+//Метод "*" означает любой метод (так работают mount'ы)
+//
+//find() не создает объектов: значения параметров возвращаются как смещения в пути
+//в массиве captures, а строки из них делает Request, только если обработчик их попросит
+final class Router {
+    static final String ANY_METHOD = "*";
+    static final String WILDCARD_PARAM = "*";
+
+    private enum Kind {
+        STATIC,
+        PARAM,
+        WILDCARD
+    }
+//Route:
+//
+//Результат поиска: обработчик и имена параметров маршрута по порядку
+//handler == null означает, что путь есть, но не для этого метода (405), allow - список методов
+    record Route(String pattern, Handler handler, String[] paramNames, String allow) {
+        int paramCount() {
+            return paramNames.length;
+        }
+    }
+
+    private final Node root;
+    private final int maxParams;
+    private final int size;
+
+    private Router(Node root, int maxParams, int size) {
+        this.root = root;
+        this.maxParams = maxParams;
+        this.size = size;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    // Наибольшее число параметров в одном маршруте: captures должен вмещать 2 * maxParams чисел
+    int getMaxParams() {
+        return maxParams;
+    }
+
+    int size() {
+        return size;
+    }
+//find(String method, String path, int[] captures):
+//
+//Возвращает маршрут для метода и пути, маршрут-заглушку с handler == null (405),
+//если путь зарегистрирован только для других методов, или null (404)
+//Для i-го параметра в captures[2 * i] и captures[2 * i + 1] - начало и конец значения в path
+    Route find(String method, String path, int[] captures) {
+        Node node = match(root, method, path, 0, captures);
+        if (node != null) {
+            return node.route(method);
+        }
+        node = match(root, null, path, 0, captures);
+        return node == null ? null : node.notAllowed;
+    }
+
+    // method == null - годится любой узел с маршрутами (проверка для 405)
+    private static Node match(Node node, String method, String path, int pos, int[] captures) {
+        switch (node.kind) {
+            case STATIC -> {
+                if (!path.startsWith(node.label, pos)) return null;
+                pos += node.label.length();
+            }
+            case PARAM -> {
+                int end = path.indexOf('/', pos);
+                if (end == -1) end = path.length();
+                if (end == pos) return null;
+                captures[2 * node.index] = pos;
+                captures[2 * node.index + 1] = end;
+                pos = end;
+            }
+            case WILDCARD -> {
+                captures[2 * node.index] = pos;
+                captures[2 * node.index + 1] = path.length();
+                return node.accepts(method) ? node : null;
+            }
+        }
+        if (pos == path.length() && node.accepts(method)) {
+            return node;
+        }
+        if (pos < path.length()) {
+            Node child = node.staticChild(path.charAt(pos));
+            if (child != null) {
+                Node found = match(child, method, path, pos, captures);
+                if (found != null) return found;
+            }
+            if (node.param != null) {
+                Node found = match(node.param, method, path, pos, captures);
+                if (found != null) return found;
+            }
+        }
+        if (node.wildcard != null) {
+            return match(node.wildcard, method, path, pos, captures);
+        }
+        return null;
+    }
+//Node:
+//
+//Узел дерева; после build() не меняется
+//STATIC - сжатая цепочка символов label, PARAM - один сегмент, WILDCARD - остаток пути
+//Статические дети ищутся по первому символу метки в отсортированном массиве
+    private static final class Node {
+        private final Kind kind;
+        private String label;
+        // Номер параметра в captures для PARAM и WILDCARD
+        private final int index;
+        private char[] firstChars = new char[0];
+        private Node[] children = new Node[0];
+        private Node param;
+        private Node wildcard;
+        private String[] methods = new String[0];
+        private Route[] routes = new Route[0];
+        private Route notAllowed;
+
+        Node(Kind kind, String label, int index) {
+            this.kind = kind;
+            this.label = label;
+            this.index = index;
+        }
+
+        Node staticChild(char c) {
+            int i = Arrays.binarySearch(firstChars, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        boolean accepts(String method) {
+            if (routes.length == 0) return false;
+            return method == null || route(method) != null;
+        }
+
+        Route route(String method) {
+            Route any = null;
+            for (int i = 0; i < methods.length; i++) {
+                String candidate = methods[i];
+                if (candidate == method || candidate.equals(method)) return routes[i];
+                if (candidate.equals(ANY_METHOD)) any = routes[i];
+            }
+            return any;
+        }
+
+        void addChild(Node child) {
+            char c = child.label.charAt(0);
+            int i = -Arrays.binarySearch(firstChars, c) - 1;
+            firstChars = insert(firstChars, i, c);
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, i);
+            grown[i] = child;
+            System.arraycopy(children, i, grown, i + 1, children.length - i);
+            children = grown;
+        }
+
+        void replaceChild(Node child) {
+            children[Arrays.binarySearch(firstChars, child.label.charAt(0))] = child;
+        }
+
+        void putRoute(String method, Route route) {
+            for (int i = 0; i < methods.length; i++) {
+                if (methods[i].equals(method)) {
+                    routes[i] = route;
+                    return;
+                }
+            }
+            methods = Arrays.copyOf(methods, methods.length + 1);
+            methods[methods.length - 1] = method;
+            routes = Arrays.copyOf(routes, routes.length + 1);
+            routes[routes.length - 1] = route;
+        }
+
+        private static char[] insert(char[] array, int index, char value) {
+            char[] grown = new char[array.length + 1];
+            System.arraycopy(array, 0, grown, 0, index);
+            grown[index] = value;
+            System.arraycopy(array, index, grown, index + 1, array.length - index);
+            return grown;
+        }
+    }
+//Builder:
+//
+//Накапливает маршруты; build() строит дерево, и дальнейшие изменения Builder'а
+//на собранный Router не влияют
+    static final class Builder {
+        private final Map<String, Map<String, Handler>> routes = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        Builder add(String method, String pattern, Handler handler) {
+            if (method == null || method.isEmpty()) {
+                throw new IllegalArgumentException("method must not be empty");
+            }
+            if (handler == null) {
+                throw new IllegalArgumentException("handler must not be null");
+            }
+            parse(pattern);
+            routes.computeIfAbsent(pattern, p -> new LinkedHashMap<>()).put(method, handler);
+            return this;
+        }
+
+        // false - такого маршрута не было
+        boolean remove(String method, String pattern) {
+            Map<String, Handler> handlers = routes.get(pattern);
+            if (handlers == null || handlers.remove(method) == null) {
+                return false;
+            }
+            if (handlers.isEmpty()) {
+                routes.remove(pattern);
+            }
+            return true;
+        }
+
+        Builder copy() {
+            Builder copy = new Builder();
+            routes.forEach((pattern, handlers) -> copy.routes.put(pattern, new LinkedHashMap<>(handlers)));
+            return copy;
+        }
+
+        Router build() {
+            Node root = new Node(Kind.STATIC, "/", -1);
+            int maxParams = 0;
+            int size = 0;
+            for (Map.Entry<String, Map<String, Handler>> entry : routes.entrySet()) {
+                String pattern = entry.getKey();
+                List<Object> tokens = parse(pattern);
+                List<String> names = new ArrayList<>();
+                Node node = root;
+                for (Object token : tokens) {
+                    if (token instanceof Param param) {
+                        if (param.wildcard()) {
+                            if (node.wildcard == null) node.wildcard = new Node(Kind.WILDCARD, "*", names.size());
+                            node = node.wildcard;
+                        } else {
+                            if (node.param == null) node.param = new Node(Kind.PARAM, "{}", names.size());
+                            node = node.param;
+                        }
+                        names.add(param.name());
+                    } else {
+                        // Корень уже совпадает с "/", поэтому первый символ шаблона пропускаем
+                        node = insertStatic(node, (String) token, node == root ? 1 : 0);
+                    }
+                }
+                String[] paramNames = names.toArray(new String[0]);
+                for (Map.Entry<String, Handler> route : entry.getValue().entrySet()) {
+                    node.putRoute(route.getKey(), new Route(pattern, route.getValue(), paramNames, null));
+                    size++;
+                }
+                maxParams = Math.max(maxParams, paramNames.length);
+            }
+            finish(root);
+            return new Router(root, maxParams, size);
+        }
+
+        private static Node insertStatic(Node node, String text, int pos) {
+            while (pos < text.length()) {
+                Node child = node.staticChild(text.charAt(pos));
+                if (child == null) {
+                    Node leaf = new Node(Kind.STATIC, text.substring(pos), -1);
+                    node.addChild(leaf);
+                    return leaf;
+                }
+                int common = commonPrefix(child.label, text, pos);
+                if (common < child.label.length()) {
+                    // Делим метку: общая часть становится новым узлом над child
+                    Node split = new Node(Kind.STATIC, child.label.substring(0, common), -1);
+                    node.replaceChild(split);
+                    child.label = child.label.substring(common);
+                    split.addChild(child);
+                    child = split;
+                }
+                pos += common;
+                node = child;
+            }
+            return node;
+        }
+
+        private static int commonPrefix(String label, String text, int from) {
+            int i = 0;
+            while (i < label.length() && from + i < text.length() && label.charAt(i) == text.charAt(from + i)) {
+                i++;
+            }
+            return i;
+        }
+
+        // Заполняет для каждого узла с маршрутами готовый ответ 405 со списком методов
+        private static void finish(Node node) {
+            if (node.routes.length > 0) {
+                String allow = String.join(", ", node.methods);
+                node.notAllowed = new Route(node.routes[0].pattern(), null, node.routes[0].paramNames(), allow);
+            }
+            for (Node child : node.children) finish(child);
+            if (node.param != null) finish(node.param);
+            if (node.wildcard != null) finish(node.wildcard);
+        }
+
+        private record Param(String name, boolean wildcard) {
+        }
+//parse(String pattern):
+//
+//Делит шаблон на статический текст (String) и параметры (Param)
+//Проверяет синтаксис: путь с "/", параметр - целый сегмент, "*" - только последний сегмент
+        private static List<Object> parse(String pattern) {
+            if (pattern == null || !pattern.startsWith("/")) {
+                throw new IllegalArgumentException("Route must start with '/': " + pattern);
+            }
+            List<Object> tokens = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            int pos = 0;
+            while (pos < pattern.length()) {
+                int end = pattern.indexOf('/', pos + 1);
+                if (end == -1) end = pattern.length();
+                String segment = pattern.substring(pos + 1, end);
+                text.append('/');
+                if (segment.equals("*")) {
+                    if (end != pattern.length()) {
+                        throw new IllegalArgumentException("'*' must be the last segment: " + pattern);
+                    }
+                    tokens.add(text.toString());
+                    text.setLength(0);
+                    tokens.add(new Param(WILDCARD_PARAM, true));
+                } else if (segment.startsWith("{") && segment.endsWith("}")) {
+                    String name = segment.substring(1, segment.length() - 1);
+                    if (name.isEmpty() || name.indexOf('{') != -1 || name.indexOf('}') != -1) {
+                        throw new IllegalArgumentException("Invalid parameter in route: " + pattern);
+                    }
+                    tokens.add(text.toString());
+                    text.setLength(0);
+                    tokens.add(new Param(name, false));
+                } else if (segment.indexOf('{') != -1 || segment.indexOf('}') != -1 || segment.indexOf('*') != -1) {
+                    throw new IllegalArgumentException("Parameter must be a whole path segment: " + pattern);
+                } else {
+                    text.append(segment);
+                }
+                pos = end;
+            }
+            if (!text.isEmpty()) {
+                tokens.add(text.toString());
+            }
+            return tokens;
+        }
+    }
+}
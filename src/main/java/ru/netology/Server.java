@@ -3,280 +3,663 @@ package ru.netology;
 
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 
 public class Server {
+    private final ServerConfig config;
     private final int port;
     private final ExecutorService threadPool;
-    private final Map<String, Map<String, Handler>> handlerMap;
+    private final Metrics metrics = new Metrics();
+    private final AdmissionControl admission;
+    private volatile AccessLog accessLog;
+    private final Semaphore connectionPermits;
+    // Сколько соединение ждет следующего запроса keep-alive: поток пула на это время занят
+    private final int idleTimeout;
+    // Изменяемая таблица маршрутов; читается и меняется только под routeLock
+    private final Object routeLock = new Object();
+    private Router.Builder routes = Router.builder();
+    // Собирается из routes в start() и заново при каждом изменении маршрутов после него
+    private volatile Router router;
+    private int routeBatchDepth;
+    // Смещения параметров пути для Router.find(), по массиву на поток
+    private final ThreadLocal<int[]> captures = new ThreadLocal<>();
     private ServerSocket serverSocket;
-
-    // Разрешённые пути
-    private static final List<String> VALID_PATHS = List.of(
-            "/index.html", "/spring.svg", "/spring.png",
-            "/resources.html", "/styles.css", "/app.js",
-            "/links.html", "/forms.html", "/classic.html",
-            "/events.html", "/events.js"
-    );
+    private volatile NioServerEngine nioEngine;
+    // Открытые соединения блокирующего движка: stop() закрывает ждущие следующего запроса
+    private final Set<OpenConnection> openConnections = ConcurrentHashMap.newKeySet();
+    // Владельцы отданных через detach() соединений, их дожидается stop()
+    private final List<Drainable> drainables = new CopyOnWriteArrayList<>();
+    // Идет stop(): новые ответы уходят с Connection: close
+    private volatile boolean stopping;
+    private boolean stopped;
+    private Thread shutdownHook;
 //Конструктор Server(int port):
 //
 //Инициализирует сервер на указанном порту
 //Создает пул из 64 потоков
-//Инициализирует карту для хранения обработчиков
+//Маршруты регистрируются через addHandler/mount (до start() или во время работы)
     public Server(int port) {
-        this.port = port;
-        this.threadPool = Executors.newFixedThreadPool(64);
-        this.handlerMap = new ConcurrentHashMap<>();
+        this(ServerConfig.builder(port).build());
+    }
+//Конструктор Server(ServerConfig config):
+//
+//То же самое, но размер пула и параметры keep-alive берутся из config
+//При virtualThreads вместо пула каждое соединение получает свой виртуальный поток,
+//а число одновременных соединений ограничивает semaphore connectionPermits
+//Очередь пула ограничена workQueueCapacity (0 - без ограничения, как у newFixedThreadPool)
+//
+//Горячий путь (BufferedReader, BufferedOutputStream, Files.copy) не закрепляет
+//виртуальный поток за потоком-носителем: начиная с Java 24 (JEP 491) блокировка
+//внутри synchronized больше не приводит к pinning, а файловый ввод-вывод
+//компенсируется дополнительным носителем в ForkJoinPool
+    public Server(ServerConfig config) {
+        this.config = config;
+        this.port = config.getPort();
+        this.threadPool = config.isVirtualThreads()
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("connection-", 0).factory())
+                : new ThreadPoolExecutor(config.getThreads(), config.getThreads(), 0, TimeUnit.MILLISECONDS,
+                        config.getWorkQueueCapacity() > 0
+                                ? new ArrayBlockingQueue<>(config.getWorkQueueCapacity())
+                                : new LinkedBlockingQueue<>());
+        this.connectionPermits = new Semaphore(config.getMaxConnections());
+        int keepAliveTimeout = config.getKeepAliveTimeout();
+        this.idleTimeout = config.isVirtualThreads() ? keepAliveTimeout
+                : keepAliveTimeout == 0 ? config.getBlockingIdleTimeout()
+                : Math.min(keepAliveTimeout, config.getBlockingIdleTimeout());
+        this.admission = new AdmissionControl(config, metrics);
+        // У виртуальных потоков очереди нет: каждая задача сразу получает свой поток
+        metrics.setQueueDepth(() -> threadPool instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0);
     }
 //start():
 //
-//Создает ServerSocket
+//Создает ServerSocket (поверх ServerSocketChannel, чтобы у сокетов был канал для sendfile)
 //Входит в бесконечный цикл приема подключений
 //Для каждого подключения запускает обработку в отдельном потоке
+//Принятое соединение сразу получает 503 и закрывается (запрос не читается), если
+//разрешений connectionPermits не осталось (открыто maxConnections соединений)
+//или очередь пула заполнена
+//Для движка NIO управление передается NioServerEngine: пул потоков
+//используется только для вызова обработчиков
+//Перед запуском маршруты собираются в неизменяемый Router
+//При shutdownHook регистрирует shutdown hook JVM, вызывающий stop()
+//Возвращает управление после stop()
     public void start() throws IOException {
-        serverSocket = new ServerSocket(port);
+        synchronized (routeLock) {
+            router = routes.build();
+        }
+        if (config.isShutdownHook()) {
+            synchronized (this) {
+                shutdownHook = new Thread(this::stop, "server-shutdown");
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+            }
+        }
+        if (config.getAccessLog() != null) {
+            accessLog = new AccessLog(config.getAccessLog(), config.getAccessLogFormat(), config.getAccessLogCapacity(),
+                    config.getAccessLogOverflow(), config.getAccessLogMaxFileSize(), config.getAccessLogRotateInterval());
+        }
+        if (config.getEngine() == ServerConfig.Engine.NIO) {
+            nioEngine = new NioServerEngine(this, config, threadPool);
+            nioEngine.bind();
+            System.out.println("Server started on port " + port + " (nio, " + config.getEventLoops() + " event loops)");
+            nioEngine.run();
+            return;
+        }
+
+        serverSocket = ServerSocketChannel.open().socket();
+        serverSocket.bind(new InetSocketAddress(port), config.getBacklog());
         System.out.println("Server started on port " + port);
 
         while (!serverSocket.isClosed()) {
-            Socket socket = serverSocket.accept();
-            threadPool.execute(() -> handleConnection(socket));
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (stopping) return;
+                throw e;
+            }
+            if (!connectionPermits.tryAcquire()) {
+                rejectConnection(socket, AdmissionControl.Rejection.CONNECTIONS);
+                continue;
+            }
+            try {
+                threadPool.execute(() -> {
+                    try {
+                        handleConnection(socket);
+                    } finally {
+                        connectionPermits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                connectionPermits.release();
+                rejectConnection(socket, AdmissionControl.Rejection.QUEUE);
+            }
+        }
+    }
+
+    private void rejectConnection(Socket socket, AdmissionControl.Rejection rejection) {
+        try (socket) {
+            admission.reject(socket.getOutputStream(), rejection);
+        } catch (IOException ignored) {
+            // Клиент уже закрыл соединение
         }
     }
 //handleConnection(Socket socket):
 //
-//Создает BufferedReader и BufferedOutputStream
-//Читает request line
-//Парсит запрос с помощью parseRequest()
-//Проверяет валидность пути
-//Находит и вызывает соответствующий обработчик
+//Создает ConnectionInput (байтовый буфер + RequestParser) и ResponseStream
+//на все время жизни соединения
+//В цикле читает голову запроса и вызывает обработчик (keep-alive),
+//затем пропускает то, что обработчик не прочитал из тела
+//Конвейерные (pipelined) запросы уже лежат в буфере ConnectionInput и
+//обслуживаются по очереди, ответы уходят в том же порядке
+//Соединение закрывается, если:
+//- клиент закрыл его или молчит дольше keepAliveTimeout
+//- клиент не начал следующий запрос за idleTimeout (на пуле потоков - blockingIdleTimeout,
+//  чтобы простаивающие соединения не держали потоки, пока новые ждут в очереди)
+//- клиент прислал Connection: close (или HTTP/1.0 без keep-alive)
+//- обслужено maxKeepAliveRequests запросов
+//- обработчик ничего не записал в ответ
+//- обработчик не прочитал тело больше 64 КБ или chunked (ответ уходит с Connection: close),
+//  или непрочитанный остаток оказался больше 64 КБ
+//- запрос не удалось разобрать (клиент получает 400/431/505)
+//- запрос отклонен AdmissionControl (клиент получает 429/503)
+//- обработчик забрал соединение через ResponseStream.detach() (закрывает его уже он)
+//- сервер останавливается (stop()), а соединение ждет следующего запроса
     private void handleConnection(Socket socket) {
-        try (socket;
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
-             BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
-
-            String requestLine = in.readLine();
-            if (requestLine == null) return;
+        ResponseStream out = null;
+        OpenConnection connection = new OpenConnection(socket);
+        openConnections.add(connection);
+        metrics.connectionOpened();
+        String remoteAddress = socket.getInetAddress().getHostAddress();
+        try {
+            out = new ResponseStream(socket.getOutputStream(), socket.getChannel());
+            socket.setSoTimeout(config.getKeepAliveTimeout());
+            ConnectionInput in = new ConnectionInput(socket.getInputStream(),
+                    new RequestParser(config.getMaxHeaderSize(), config.getMaxHeaders()), config.getMaxHeaderSize(), metrics);
+            int served = 0;
+            while (true) {
+                Request request;
+                try {
+                    if (served > 0) {
+                        // Ждем следующий запрос keep-alive: такое соединение stop() закрывает сразу
+                        connection.waiting = true;
+                        if (stopping) return;
+                        if (idleTimeout != config.getKeepAliveTimeout()) {
+                            socket.setSoTimeout(idleTimeout);
+                            boolean open = in.awaitData();
+                            socket.setSoTimeout(config.getKeepAliveTimeout());
+                            if (!open) return;
+                        }
+                    }
+                    RequestHead head = in.readHead();
+                    connection.waiting = false;
+                    if (head == null) return;
+                    served++;
+                    request = readRequest(head, in);
+                    request.setRemoteAddress(remoteAddress);
+                } catch (RequestParseException e) {
+                    byte[] response = errorResponse(e.getStatus());
+                    out.write(response);
+                    out.flush();
+                    metrics.responded(e.getStatus(), response.length);
+                    return;
+                }
 
-            Request request = parseRequest(requestLine, in);
+                AdmissionControl.Rejection rejection = admission.admit(remoteAddress);
+                if (rejection != null) {
+                    out.write(admission.reject(rejection));
+                    out.flush();
+                    return;
+                }
+                long admitted = System.nanoTime();
+                boolean keepAlive;
+                try {
+                    keepAlive = process(request, out, served);
+                } finally {
+                    admission.release(admitted);
+                }
+                if (!keepAlive || !out.isCommitted() || !request.discardBody()) return;
+            }
+        } catch (SocketTimeoutException e) {
+            // Соединение простаивало дольше idleTimeout или keepAliveTimeout
+        } catch (IOException e) {
+            // При остановке соединения закрываются из stop(), это не ошибка
+            if (!stopping) {
+                System.err.println("Connection error: " + e.getMessage());
+            }
+        } finally {
+            openConnections.remove(connection);
+            metrics.connectionClosed();
+            // Отданное через detach() соединение закрывает его новый владелец
+            if (out == null || !out.isDetached()) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Соединение уже закрыто
+                }
+            }
+        }
+    }
+//readRequest(RequestHead head, ConnectionInput in):
+//
+//Тело не читается: Request получает поток, ограниченный Content-Length
+//(или концом chunked тела), и обработчик читает его сам, если нужно
+    private Request readRequest(RequestHead head, ConnectionInput in) throws IOException {
+        InputStream body;
+        if (head.hasHeader("transfer-encoding")) {
+            if (!isChunked(head)) {
+                throw new RequestParseException(501, "Unsupported transfer coding");
+            }
+            body = in.openChunkedBody();
+        } else {
+            long contentLength = head.contentLength();
+            body = contentLength > 0 ? in.openBody(contentLength) : InputStream.nullInputStream();
+        }
+        return new Request(head, body, config.getMultipartFileThreshold());
+    }
+//isChunked(RequestHead head):
+//
+//Из кодировок передачи поддерживается только chunked
+    static boolean isChunked(RequestHead head) {
+        String transferEncoding = head.header("transfer-encoding");
+        return transferEncoding != null && transferEncoding.trim().equalsIgnoreCase("chunked");
+    }
+//process(Request request, ResponseStream out, int served):
+//
+//Общая часть обоих движков: решает вопрос keep-alive,
+//вызывает обработчик и сбрасывает ответ в out
+//После обработчика удаляет временные файлы загрузок и передает ответ в Metrics и AccessLog
+//Ошибки разбора тела (400, 413) превращаются в ответ, если обработчик еще ничего не записал
+//Возвращает true, если соединение можно оставить открытым
+    boolean process(Request request, ResponseStream out, int served) throws IOException {
+        if (config.isLogRequests()) {
             System.out.println("Received: " + request);
+        }
+        long started = System.nanoTime();
 
-            if (!VALID_PATHS.contains(request.getPath())) {
-                sendNotFound(out);
-                return;
+        // Transfer-Encoding вместе с Content-Length - признак попытки request smuggling:
+        // после ответа соединение закрывается (RFC 9112 6.3)
+        boolean keepAlive = request.isKeepAlive()
+                && (request.getHeader("transfer-encoding") == null || request.getHeader("content-length") == null)
+                && served < config.getMaxKeepAliveRequests()
+                && !stopping;
+        out.begin(request, keepAlive);
+        try {
+            dispatch(request, out);
+        } catch (UncheckedIOException e) {
+            // Тело оказалось некорректным, когда обработчик начал его разбирать
+            if (!(e.getCause() instanceof RequestParseException parseError) || out.isCommitted()) {
+                throw e.getCause();
             }
-
-            Map<String, Handler> methodHandlers = handlerMap.get(request.getMethod());
-            if (methodHandlers == null) {
+            out.write(errorResponse(parseError.getStatus()));
+            keepAlive = false;
+        } finally {
+            request.deleteTemporaryFiles();
+            metrics.responded(out.getStatus(), out.getWritten());
+            AccessLog log = accessLog;
+            if (log != null) {
+                log.log(request, out.getStatus(), out.getWritten(), System.nanoTime() - started);
+            }
+        }
+        out.flush();
+        return keepAlive && out.isKeepAlive();
+    }
+//dispatch(Request request, BufferedOutputStream out):
+//
+//Ищет маршрут в Router (один проход по дереву без создания объектов)
+//Нет маршрута - 404, путь есть, но не для этого метода - 405 с заголовком Allow
+//Параметры пути передаются в Request смещениями, строки из них делает обработчик
+//Время обработки попадает в Metrics по шаблону маршрута
+    private void dispatch(Request request, BufferedOutputStream out) throws IOException {
+        long started = System.nanoTime();
+        String pattern = null;
+        try {
+            Router current = router;
+            int[] bounds = captures.get();
+            if (bounds == null || bounds.length < current.getMaxParams() * 2) {
+                bounds = new int[current.getMaxParams() * 2];
+                captures.set(bounds);
+            }
+            Router.Route route = current.find(request.getMethod(), request.getPath(), bounds);
+            if (route == null) {
                 sendNotFound(out);
                 return;
             }
-
-            Handler handler = methodHandlers.get(request.getPath());
-            if (handler == null) {
-                sendNotFound(out);
+            pattern = route.pattern();
+            if (route.handler() == null) {
+                sendMethodNotAllowed(out, route.allow());
                 return;
             }
-
-            handler.handle(request, out);
-
-        } catch (IOException e) {
-            System.err.println("Connection error: " + e.getMessage());
+            if (route.paramCount() > 0) {
+                request.setPathParams(route.paramNames(), Arrays.copyOf(bounds, route.paramCount() * 2));
+            }
+            route.handler().handle(request, out);
+        } finally {
+            metrics.handled(request.getMethod(), pattern, System.nanoTime() - started);
         }
     }
-//parseRequest(String requestLine, BufferedReader in):
+//addHandler(String method, String path, Handler handler):
 //
-//Основной метод парсинга запроса
-//Читает заголовки для получения Content-Type и Content-Length
-//Обрабатывает два типа тел:
+//Регистрирует обработчик для метода и шаблона пути (см. Router):
+//"/index.html", "/messages/{id}", "/files/*"
+//Обработчик того же метода и шаблона заменяется
+//После start() Router собирается заново и подменяется целиком (copy-on-write):
+//запросы, уже нашедшие маршрут, дорабатывают со старым, следующие видят новый
+    public void addHandler(String method, String path, Handler handler) {
+        synchronized (routeLock) {
+            routes.add(method, path, handler);
+            publishRoutes();
+        }
+    }
+//removeHandler(String method, String path):
 //
-//application/x-www-form-urlencoded: разбирает &-параметры
-//multipart/form-data: парсит по boundary, извлекает файлы и поля
-//Возвращает Request с заполненными параметрами
-    private ru.netology.Request parseRequest(String requestLine, BufferedReader in) throws IOException {
-        try {
-            ru.netology.Request request = ru.netology.Request.parse(requestLine);
-            
-            // Читаем заголовки
-            String line;
-            String contentType = null;
-            String boundary = null;
-            int contentLength = 0;
-            
-            while ((line = in.readLine()) != null && !line.isEmpty()) {
-                if (line.toLowerCase().startsWith("content-type:")) {
-                    contentType = line.substring(13).trim();
-                    if (contentType.startsWith("multipart/form-data")) {
-                        int boundaryIndex = contentType.indexOf("boundary=");
-                        if (boundaryIndex != -1) {
-                            boundary = contentType.substring(boundaryIndex + 9);
-                        }
-                    }
-                } else if (line.toLowerCase().startsWith("content-length:")) {
-                    contentLength = Integer.parseInt(line.substring(15).trim());
-                }
+//Удаляет маршрут, зарегистрированный addHandler (для mount - с методом "*")
+//Возвращает false, если такого маршрута не было
+    public boolean removeHandler(String method, String path) {
+        synchronized (routeLock) {
+            boolean removed = routes.remove(method, path);
+            if (removed) {
+                publishRoutes();
             }
-            
-            // Обрабатываем тело запроса, если это POST и есть данные
-            if ("POST".equals(request.getMethod()) && contentLength > 0) {
-                if ("application/x-www-form-urlencoded".equals(contentType)) {
-                    char[] bodyChars = new char[contentLength];
-                    in.read(bodyChars, 0, contentLength);
-                    String body = new String(bodyChars);
-                    
-                    Map<String, String> formParams = new HashMap<>();
-                    String[] params = body.split("&");
-                    for (String param : params) {
-                        String[] keyValue = param.split("=", 2);
-                        if (keyValue.length == 2) {
-                            formParams.put(keyValue[0], keyValue[1]);
-                        } else {
-                            formParams.put(keyValue[0], "");
-                        }
-                    }
-                    
-                    return new ru.netology.Request(request.getMethod(), request.getPath(), request.getQueryParams(), formParams, new HashMap<>(), new HashMap<>());
-                } else if (contentType != null && contentType.startsWith("multipart/form-data") && boundary != null) {
-                    Map<String, String> multipartParams = new HashMap<>();
-                    Map<String, byte[]> fileParams = new HashMap<>();
-                    
-                    // Читаем тело multipart запроса
-                    StringBuilder bodyBuilder = new StringBuilder();
-                    int totalRead = 0;
-                    char[] buffer = new char[1024];
-                    
-                    while (totalRead < contentLength) {
-                        int read = in.read(buffer, 0, Math.min(buffer.length, contentLength - totalRead));
-                        if (read == -1) break;
-                        bodyBuilder.append(buffer, 0, read);
-                        totalRead += read;
-                    }
-                    
-                    String body = bodyBuilder.toString();
-                    // Удаляем начальную и конечную границы
-                    body = body.replaceFirst("^--" + java.util.regex.Pattern.quote(boundary) + "\r\n", "");
-                    body = body.replaceFirst("--" + java.util.regex.Pattern.quote(boundary) + "--$", "");
-                    String[] parts = body.split("--" + java.util.regex.Pattern.quote(boundary));
-                    
-                    for (String part : parts) {
-                        if (part.trim().isEmpty() || part.trim().equals("--")) continue;
-                        
-                        int headerEnd = part.indexOf("\r\n\r\n");
-                        if (headerEnd == -1) continue;
-                        
-                        String headers = part.substring(0, headerEnd);
-                        String content = part.substring(headerEnd + 4); // +4 для \r\n\r\n
-                        
-                        // Удаляем последний \r\n
-                        if (content.endsWith("\r\n")) {
-                            content = content.substring(0, content.length() - 2);
-                        }
-                        
-                        // Проверяем, является ли часть файлом
-                        if (headers.contains("filename=\"") || headers.contains("filename*=utf-8''")) {
-                            // Извлекаем имя параметра
-                            int nameStart = headers.indexOf("name=\"");
-                            if (nameStart != -1) {
-                                nameStart += 6; // длина "name=\""
-                                int nameEnd = headers.indexOf("\"", nameStart);
-                                if (nameEnd != -1) {
-                                    String paramName = headers.substring(nameStart, nameEnd);
-                                    fileParams.put(paramName, content.getBytes(UTF_8));
-                                }
-                            }
-                        } else {
-                            // Простое текстовое поле
-                            int nameStart = headers.indexOf("name=\"");
-                            if (nameStart != -1) {
-                                nameStart += 6;
-                                int nameEnd = headers.indexOf("\"", nameStart);
-                                if (nameEnd != -1) {
-                                    String paramName = headers.substring(nameStart, nameEnd);
-                                    multipartParams.put(paramName, content);
-                                }
-                            }
-                        }
-                    }
-                    
-                    return new ru.netology.Request(request.getMethod(), request.getPath(), request.getQueryParams(), new HashMap<>(), multipartParams, fileParams);
-                }
+            return removed;
+        }
+    }
+//updateRoutes(Runnable changes):
+//
+//Применяет несколько изменений (addHandler/removeHandler/mount внутри changes) одной подменой Router:
+//запросы видят либо старую таблицу маршрутов, либо новую целиком
+//Если changes бросит исключение, таблица остается прежней
+    public void updateRoutes(Runnable changes) {
+        synchronized (routeLock) {
+            Router.Builder before = routes.copy();
+            routeBatchDepth++;
+            try {
+                changes.run();
+            } catch (RuntimeException | Error e) {
+                routes = before;
+                throw e;
+            } finally {
+                routeBatchDepth--;
             }
-            
-            return new ru.netology.Request(request.getMethod(), request.getPath(), request.getQueryParams(), new HashMap<>(), new HashMap<>(), new HashMap<>());
-        } catch (Exception e) {
-            String[] parts = requestLine.split(" ");
-            String method = parts.length > 0 ? parts[0] : "";
-            String path = parts.length > 1 ? parts[1] : "";
-            return new ru.netology.Request(method, path);
+            publishRoutes();
         }
     }
-//addHandler(String method, String path, Handler handler):
+
+    // Вызывается под routeLock; до start() Router еще не собирается
+    private void publishRoutes() {
+        if (router != null && routeBatchDepth == 0) {
+            router = routes.build();
+        }
+    }
+//mount(String prefix, Handler handler):
 //
-//Регистрирует обработчик для метода и пути
-//Использует вложенные ConcurrentHashMap
-    public void addHandler(String method, String path, Handler handler) {
-        handlerMap.computeIfAbsent(method, k -> new ConcurrentHashMap<>())
-                .put(path, handler);
+//Отдает обработчику все пути под prefix (и сам prefix) для любых методов
+//Остаток пути после prefix доступен как request.getPathParam("*")
+    public void mount(String prefix, Handler handler) {
+        String base = prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        if (!base.isEmpty()) {
+            addHandler(Router.ANY_METHOD, base, handler);
+        }
+        addHandler(Router.ANY_METHOD, base + "/*", handler);
     }
 
 //Методы отправки ответов:
 //
 //sendOk(): формирует 200 OK ответ с содержимым
 //sendNotFound(): формирует 404 Not Found ответ
+//sendMethodNotAllowed(): формирует 405 Method Not Allowed со списком допустимых методов
+//sendChunked(): начинает потоковый ответ неизвестной длины
+//Файл отправляется через ResponseStream.transferFile (sendfile), если это поток соединения
+//Сжимаемое содержимое от gzipMinSize байт сжимается gzip на лету, если клиент его принимает
+//Заголовок Connection зависит от решения о keep-alive для текущего запроса
+//Строки статуса и заголовки берутся готовыми из ResponseHeaders
     public void sendOk(BufferedOutputStream out, String mimeType, byte[] content) throws IOException {
-        out.write(("HTTP/1.1 200 OK\r\n" +
-                "Content-Type: " + mimeType + "\r\n" +
-                "Content-Length: " + content.length + "\r\n" +
-                "Connection: close\r\n" +
-                "\r\n").getBytes());
-        out.write(content);
+        boolean compressible = ContentEncoding.isCompressible(mimeType);
+        byte[] encodingHeaders = compressible ? ResponseHeaders.VARY : null;
+        if (compressible
+                && content.length >= config.getGzipMinSize()
+                && out instanceof ResponseStream response
+                && response.getRequest() != null
+                && ContentEncoding.accepts(response.getRequest().getHeader("accept-encoding"), ContentEncoding.GZIP)) {
+            content = ContentEncoding.gzip(content, ContentEncoding.DYNAMIC_LEVEL);
+            encodingHeaders = ResponseHeaders.GZIP_VARY;
+        }
+        out.write(ResponseHeaders.OK);
+        out.write(ResponseHeaders.contentType(mimeType));
+        if (encodingHeaders != null) {
+            out.write(encodingHeaders);
+        }
+        ResponseHeaders.writeContentLength(out, content.length);
+        out.write(ResponseHeaders.end(out));
+        if (out instanceof ResponseStream response) {
+            response.writeBody(ByteBuffer.wrap(content));
+        } else {
+            out.write(content);
+        }
         out.flush();
     }
 
     public void sendOk(BufferedOutputStream out, String mimeType, Path filePath) throws IOException {
         long length = Files.size(filePath);
-        out.write(("HTTP/1.1 200 OK\r\n" +
-                "Content-Type: " + mimeType + "\r\n" +
-                "Content-Length: " + length + "\r\n" +
-                "Connection: close\r\n" +
-                "\r\n").getBytes());
-        Files.copy(filePath, out);
+        out.write(ResponseHeaders.OK);
+        out.write(ResponseHeaders.contentType(mimeType));
+        ResponseHeaders.writeContentLength(out, length);
+        out.write(ResponseHeaders.end(out));
+        if (out instanceof ResponseStream response) {
+            response.transferFile(filePath, 0, length);
+        } else {
+            Files.copy(filePath, out);
+        }
+        out.flush();
+    }
+
+//sendOk(BufferedOutputStream out, String mimeType, Template template, Map<String, ?> values):
+//
+//Отрисовывает шаблон прямо в поток ответа: Content-Length известен заранее
+//(длина статических кусков + длины значений), поэтому страница не собирается в памяти
+//Только если ответ будет сжат gzip, он сначала рисуется в массив точной длины
+    public void sendOk(BufferedOutputStream out, String mimeType, Template template, Map<String, ?> values) throws IOException {
+        byte[][] encoded = template.encode(values);
+        int length = template.length(encoded);
+        if (length >= config.getGzipMinSize()
+                && ContentEncoding.isCompressible(mimeType)
+                && out instanceof ResponseStream response
+                && response.getRequest() != null
+                && ContentEncoding.accepts(response.getRequest().getHeader("accept-encoding"), ContentEncoding.GZIP)) {
+            ByteArrayOutputStream page = new ByteArrayOutputStream(length);
+            template.render(page, encoded);
+            sendOk(out, mimeType, page.toByteArray());
+            return;
+        }
+        out.write(ResponseHeaders.OK);
+        out.write(ResponseHeaders.contentType(mimeType));
+        if (ContentEncoding.isCompressible(mimeType)) {
+            out.write(ResponseHeaders.VARY);
+        }
+        ResponseHeaders.writeContentLength(out, length);
+        out.write(ResponseHeaders.end(out));
+        template.render(out, encoded);
+        out.flush();
+    }
+
+//sendChunked(BufferedOutputStream out, String mimeType, String... trailerNames):
+//
+//Начинает 200 OK ответ с Transfer-Encoding: chunked и возвращает поток для тела,
+//чтобы отдавать большие или генерируемые ответы по частям, не собирая их в памяти
+//Поток обязательно закрыть: close() пишет последний чанк и трейлеры
+//trailerNames - трейлеры, которые будут заданы через ChunkedOutputStream.setTrailer()
+//Клиенту HTTP/1.0 тело отправляется без chunked, и соединение после него закрывается
+    public ChunkedOutputStream sendChunked(BufferedOutputStream out, String mimeType, String... trailerNames) throws IOException {
+        boolean chunked = true;
+        if (out instanceof ResponseStream response
+                && response.getRequest() != null
+                && !Request.HTTP_1_1.equals(response.getRequest().getProtocol())) {
+            chunked = false;
+            response.disableKeepAlive();
+        }
+        out.write(ResponseHeaders.OK);
+        out.write(ResponseHeaders.contentType(mimeType));
+        if (chunked) {
+            out.write(ResponseHeaders.CHUNKED);
+            if (trailerNames.length > 0) {
+                out.write(("Trailer: " + String.join(", ", trailerNames) + "\r\n").getBytes(US_ASCII));
+            }
+        }
+        out.write(ResponseHeaders.end(out));
+        return new ChunkedOutputStream(out, chunked, ChunkedOutputStream.DEFAULT_CHUNK_SIZE, trailerNames);
+    }
+
+    public void sendMethodNotAllowed(BufferedOutputStream out, String allow) throws IOException {
+        out.write(ResponseHeaders.METHOD_NOT_ALLOWED);
+        out.write(allow.getBytes(US_ASCII));
+        out.write(ResponseHeaders.ALLOW_END);
+        out.write(ResponseHeaders.end(out));
         out.flush();
     }
 
     public void sendNotFound(BufferedOutputStream out) throws IOException {
-        out.write(("HTTP/1.1 404 Not Found\r\n" +
+        out.write(ResponseHeaders.NOT_FOUND);
+        out.write(ResponseHeaders.end(out));
+        out.flush();
+    }
+//errorResponse(int status):
+//
+//Готовый ответ об ошибке без тела, после которого соединение закрывается
+    static byte[] errorResponse(int status) {
+        String reason = switch (status) {
+            case 400 -> "Bad Request";
+            case 413 -> "Content Too Large";
+            case 431 -> "Request Header Fields Too Large";
+            case 501 -> "Not Implemented";
+            case 505 -> "HTTP Version Not Supported";
+            default -> "Error";
+        };
+        return ("HTTP/1.1 " + status + " " + reason + "\r\n" +
                 "Content-Length: 0\r\n" +
                 "Connection: close\r\n" +
-                "\r\n").getBytes());
-        out.flush();
+                "\r\n").getBytes(US_ASCII);
+    }
+
+    // Метрики сервера (для /metrics: getMetrics().scrape())
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    AdmissionControl getAdmissionControl() {
+        return admission;
     }
 //stop():
 //
-//Корректно завершает работу сервера
-//Закрывает ServerSocket и пул потоков
-    public void stop() {
+//Плавно останавливает сервер, не обрывая выполняемые запросы:
+//1. закрывает ServerSocket (или прием в NIO-движке): новые соединения не принимаются
+//2. закрывает keep-alive соединения, ждущие следующего запроса
+//3. вызывает drain() у addDrainable(): они отвечают своим long-poll и SSE клиентам
+//4. ждет выполняемые запросы; после ответа их соединения закрываются
+//Шаги 3 и 4 вместе укладываются в shutdownTimeout
+//5. закрывает оставшиеся соединения и пул потоков, дописывает и закрывает журнал запросов
+//Повторный вызов (shutdown hook и finally в main) ждет, пока закончится первый
+    public synchronized void stop() {
+        if (stopped) return;
+        stopped = true;
+        stopping = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getShutdownTimeout());
         try {
+            NioServerEngine engine = nioEngine;
+            if (engine != null) {
+                engine.stopAccepting();
+            }
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+            for (OpenConnection connection : openConnections) {
+                if (connection.waiting) {
+                    closeQuietly(connection.socket);
+                }
+            }
+            for (Drainable drainable : drainables) {
+                drainable.drain(deadline);
+            }
+            if (engine != null) {
+                engine.awaitConnections(deadline);
+            }
+            threadPool.shutdown();
+            if (!threadPool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                System.err.println("Shutdown timeout: closing " + openConnections.size() + " connections");
+                threadPool.shutdownNow();
+                for (OpenConnection connection : openConnections) {
+                    closeQuietly(connection.socket);
+                }
+            }
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            threadPool.shutdownNow();
+        }
+        AccessLog log = accessLog;
+        if (log != null) {
+            log.close();
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // JVM уже останавливается, hook выполнится сам
+            }
+        }
+    }
+
+//addDrainable(Drainable drainable):
+//
+//Регистрирует компонент, который держит отданные через detach() соединения;
+//stop() вызывает его drain() до ожидания выполняемых запросов
+    public void addDrainable(Drainable drainable) {
+        drainables.add(drainable);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Соединение уже закрыто
+        }
+    }
+//OpenConnection:
+//
+//Соединение блокирующего движка; waiting - ответ отправлен и поток ждет следующий запрос
+    private static final class OpenConnection {
+        private final Socket socket;
+        private volatile boolean waiting;
+
+        OpenConnection(Socket socket) {
+            this.socket = socket;
         }
-        threadPool.shutdown();
     }
 }
 
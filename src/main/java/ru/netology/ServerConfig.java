@@ -0,0 +1,496 @@
+package ru.netology;
+
+import java.nio.file.Path;
+
+//ServerConfig:
+//
+//Неизменяемые настройки сервера
+//Создается через ServerConfig.builder(port)
+//Значения по умолчанию совпадают с прежним поведением Server(int port)
+public class ServerConfig {
+//Engine:
+//
+//BLOCKING: ServerSocket.accept() и поток пула на каждое соединение
+//NIO: неблокирующие event loop'ы на Selector, пул потоков только для Handler
+    public enum Engine {
+        BLOCKING,
+        NIO
+    }
+
+    public static final int DEFAULT_THREADS = 64;
+    public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5_000;
+    public static final int DEFAULT_BLOCKING_IDLE_TIMEOUT = 2_000;
+    public static final int DEFAULT_MAX_KEEP_ALIVE_REQUESTS = 100;
+    public static final int DEFAULT_VIRTUAL_MAX_CONNECTIONS = 10_000;
+    public static final int DEFAULT_BACKLOG = 1024;
+    public static final int DEFAULT_GZIP_MIN_SIZE = 1024;
+    public static final int DEFAULT_MAX_HEADER_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_HEADERS = 100;
+    public static final int DEFAULT_MULTIPART_FILE_THRESHOLD = 64 * 1024;
+    public static final int DEFAULT_ACCESS_LOG_CAPACITY = 8192;
+    public static final long DEFAULT_ACCESS_LOG_MAX_FILE_SIZE = 64L * 1024 * 1024;
+    public static final long DEFAULT_ACCESS_LOG_ROTATE_INTERVAL = 24 * 60 * 60 * 1000L;
+    public static final int DEFAULT_RETRY_AFTER = 1;
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = 30_000;
+
+    private final int port;
+    private final Engine engine;
+    private final int eventLoops;
+    private final int threads;
+    private final boolean virtualThreads;
+    private final int maxConnections;
+    private final int backlog;
+    private final int workQueueCapacity;
+    private final int retryAfter;
+    private final double rateLimit;
+    private final int rateLimitBurst;
+    private final long concurrencyLatencyThreshold;
+    private final int keepAliveTimeout;
+    private final int blockingIdleTimeout;
+    private final int maxKeepAliveRequests;
+    private final int gzipMinSize;
+    private final int maxHeaderSize;
+    private final int maxHeaders;
+    private final int multipartFileThreshold;
+    private final boolean logRequests;
+    private final Path accessLog;
+    private final String accessLogFormat;
+    private final int accessLogCapacity;
+    private final AccessLog.Overflow accessLogOverflow;
+    private final long accessLogMaxFileSize;
+    private final long accessLogRotateInterval;
+    private final long shutdownTimeout;
+    private final boolean shutdownHook;
+
+    private ServerConfig(Builder builder) {
+        this.port = builder.port;
+        this.engine = builder.engine;
+        this.eventLoops = builder.eventLoops;
+        this.threads = builder.threads;
+        this.virtualThreads = builder.virtualThreads;
+        if (builder.maxConnections > 0) {
+            this.maxConnections = builder.maxConnections;
+        } else {
+            this.maxConnections = virtualThreads ? DEFAULT_VIRTUAL_MAX_CONNECTIONS : Integer.MAX_VALUE;
+        }
+        this.backlog = builder.backlog;
+        this.workQueueCapacity = builder.workQueueCapacity;
+        this.retryAfter = builder.retryAfter;
+        this.rateLimit = builder.rateLimit;
+        this.rateLimitBurst = builder.rateLimitBurst;
+        this.concurrencyLatencyThreshold = builder.concurrencyLatencyThreshold;
+        this.keepAliveTimeout = builder.keepAliveTimeout;
+        this.blockingIdleTimeout = builder.blockingIdleTimeout;
+        this.maxKeepAliveRequests = builder.maxKeepAliveRequests;
+        this.gzipMinSize = builder.gzipMinSize;
+        this.maxHeaderSize = builder.maxHeaderSize;
+        this.maxHeaders = builder.maxHeaders;
+        this.multipartFileThreshold = builder.multipartFileThreshold;
+        this.logRequests = builder.logRequests;
+        this.accessLog = builder.accessLog;
+        this.accessLogFormat = builder.accessLogFormat;
+        this.accessLogCapacity = builder.accessLogCapacity;
+        this.accessLogOverflow = builder.accessLogOverflow;
+        this.accessLogMaxFileSize = builder.accessLogMaxFileSize;
+        this.accessLogRotateInterval = builder.accessLogRotateInterval;
+        this.shutdownTimeout = builder.shutdownTimeout;
+        this.shutdownHook = builder.shutdownHook;
+    }
+
+    public static Builder builder(int port) {
+        return new Builder(port);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    // Число потоков-селекторов для движка NIO
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // Поток на соединение виртуальный (пул из threads потоков не создается)
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // Сколько соединений сервер держит открытыми одновременно; следующие получают 503
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    // Очередь ядра для соединений, которые сервер еще не успел принять
+    public int getBacklog() {
+        return backlog;
+    }
+
+    // Сколько задач может ждать свободный поток пула (соединений для BLOCKING, запросов для NIO),
+    // 0 - без ограничения; при виртуальных потоках очереди нет
+    public int getWorkQueueCapacity() {
+        return workQueueCapacity;
+    }
+
+    // Retry-After в ответах 503, секунды
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    // Запросов в секунду с одного IP (token bucket), 0 - без ограничения
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    // Сколько запросов подряд можно сделать с одного IP сверх rateLimit
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    // Задержка ответа в миллисекундах, выше которой адаптивный предел
+    // одновременных запросов снижается; 0 - предел выключен
+    public long getConcurrencyLatencyThreshold() {
+        return concurrencyLatencyThreshold;
+    }
+
+    // Сколько миллисекунд соединение может простаивать между запросами
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    // Сколько миллисекунд блокирующий движок на пуле потоков ждет следующего запроса keep-alive
+    // (не дольше keepAliveTimeout): такое соединение держит поток пула, и новые соединения
+    // стоят за ним в очереди; при threads не меньше числа одновременных keep-alive
+    // соединений можно поднять до keepAliveTimeout
+    public int getBlockingIdleTimeout() {
+        return blockingIdleTimeout;
+    }
+
+    // Сколько запросов обслуживается в одном соединении, после чего оно закрывается
+    public int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    // Ответы sendOk(byte[]) меньше этого размера не сжимаются на лету
+    public int getGzipMinSize() {
+        return gzipMinSize;
+    }
+
+    // Предельный размер request line вместе с заголовками; больше - ответ 431
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    // Предельное число заголовков в запросе; больше - ответ 431
+    public int getMaxHeaders() {
+        return maxHeaders;
+    }
+
+    // Файлы из multipart больше этого размера пишутся во временный файл, а не в память
+    public int getMultipartFileThreshold() {
+        return multipartFileThreshold;
+    }
+
+    // Печатать каждый запрос целиком в System.out ("Received: ...")
+    public boolean isLogRequests() {
+        return logRequests;
+    }
+
+    // Файл журнала запросов или null, если журнал не ведется
+    public Path getAccessLog() {
+        return accessLog;
+    }
+
+    public String getAccessLogFormat() {
+        return accessLogFormat;
+    }
+
+    // Сколько записей журнала может ждать записи на диск
+    public int getAccessLogCapacity() {
+        return accessLogCapacity;
+    }
+
+    // Что делать с записью, когда очередь журнала полна
+    public AccessLog.Overflow getAccessLogOverflow() {
+        return accessLogOverflow;
+    }
+
+    public long getAccessLogMaxFileSize() {
+        return accessLogMaxFileSize;
+    }
+
+    public long getAccessLogRotateInterval() {
+        return accessLogRotateInterval;
+    }
+
+    // Сколько миллисекунд stop() ждет выполняемые запросы, прежде чем закрыть соединения принудительно
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    // start() регистрирует shutdown hook JVM, который вызывает stop() (SIGTERM, Ctrl+C)
+    public boolean isShutdownHook() {
+        return shutdownHook;
+    }
+
+    public static class Builder {
+        private final int port;
+        private Engine engine = Engine.BLOCKING;
+        private int eventLoops = Runtime.getRuntime().availableProcessors();
+        private int threads = DEFAULT_THREADS;
+        private boolean virtualThreads;
+        private int maxConnections;
+        private int backlog = DEFAULT_BACKLOG;
+        private int workQueueCapacity;
+        private int retryAfter = DEFAULT_RETRY_AFTER;
+        private double rateLimit;
+        private int rateLimitBurst;
+        private long concurrencyLatencyThreshold;
+        private int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+        private int blockingIdleTimeout = DEFAULT_BLOCKING_IDLE_TIMEOUT;
+        private int maxKeepAliveRequests = DEFAULT_MAX_KEEP_ALIVE_REQUESTS;
+        private int gzipMinSize = DEFAULT_GZIP_MIN_SIZE;
+        private int maxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+        private int maxHeaders = DEFAULT_MAX_HEADERS;
+        private int multipartFileThreshold = DEFAULT_MULTIPART_FILE_THRESHOLD;
+        private boolean logRequests = true;
+        private Path accessLog;
+        private String accessLogFormat = AccessLog.COMBINED_FORMAT;
+        private int accessLogCapacity = DEFAULT_ACCESS_LOG_CAPACITY;
+        private AccessLog.Overflow accessLogOverflow = AccessLog.Overflow.DROP;
+        private long accessLogMaxFileSize = DEFAULT_ACCESS_LOG_MAX_FILE_SIZE;
+        private long accessLogRotateInterval = DEFAULT_ACCESS_LOG_ROTATE_INTERVAL;
+        private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+        private boolean shutdownHook;
+
+        private Builder(int port) {
+            this.port = port;
+        }
+
+        public Builder engine(Engine engine) {
+            if (engine == null) {
+                throw new IllegalArgumentException("engine must not be null");
+            }
+            this.engine = engine;
+            return this;
+        }
+
+        public Builder eventLoops(int eventLoops) {
+            if (eventLoops <= 0) {
+                throw new IllegalArgumentException("eventLoops must be positive: " + eventLoops);
+            }
+            this.eventLoops = eventLoops;
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads must be positive: " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        // Для NIO-движка в виртуальных потоках выполняются обработчики
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        // По умолчанию без ограничения для пула и 10 000 для виртуальных потоков
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder backlog(int backlog) {
+            if (backlog <= 0) {
+                throw new IllegalArgumentException("backlog must be positive: " + backlog);
+            }
+            this.backlog = backlog;
+            return this;
+        }
+
+        // 0 - без ограничения, как у Executors.newFixedThreadPool
+        public Builder workQueueCapacity(int capacity) {
+            if (capacity < 0) {
+                throw new IllegalArgumentException("workQueueCapacity must not be negative: " + capacity);
+            }
+            this.workQueueCapacity = capacity;
+            return this;
+        }
+
+        public Builder retryAfter(int seconds) {
+            if (seconds <= 0) {
+                throw new IllegalArgumentException("retryAfter must be positive: " + seconds);
+            }
+            this.retryAfter = seconds;
+            return this;
+        }
+
+        // requestsPerSecond 0 выключает ограничение; burst - емкость ведра, не меньше 1
+        public Builder rateLimit(double requestsPerSecond, int burst) {
+            if (requestsPerSecond < 0 || Double.isNaN(requestsPerSecond) || Double.isInfinite(requestsPerSecond)) {
+                throw new IllegalArgumentException("rateLimit must not be negative: " + requestsPerSecond);
+            }
+            if (requestsPerSecond > 0 && burst <= 0) {
+                throw new IllegalArgumentException("rateLimit burst must be positive: " + burst);
+            }
+            this.rateLimit = requestsPerSecond;
+            this.rateLimitBurst = burst;
+            return this;
+        }
+
+        // Включает адаптивный предел одновременных запросов (ConcurrencyLimit), 0 - выключает
+        public Builder adaptiveConcurrency(long latencyThresholdMillis) {
+            if (latencyThresholdMillis < 0) {
+                throw new IllegalArgumentException("adaptiveConcurrency threshold must not be negative: " + latencyThresholdMillis);
+            }
+            this.concurrencyLatencyThreshold = latencyThresholdMillis;
+            return this;
+        }
+
+        public Builder keepAliveTimeout(int millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("keepAliveTimeout must not be negative: " + millis);
+            }
+            this.keepAliveTimeout = millis;
+            return this;
+        }
+
+        public Builder blockingIdleTimeout(int millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("blockingIdleTimeout must be positive: " + millis);
+            }
+            this.blockingIdleTimeout = millis;
+            return this;
+        }
+
+        // 1 отключает keep-alive: после первого ответа соединение закрывается
+        public Builder maxKeepAliveRequests(int maxKeepAliveRequests) {
+            if (maxKeepAliveRequests <= 0) {
+                throw new IllegalArgumentException("maxKeepAliveRequests must be positive: " + maxKeepAliveRequests);
+            }
+            this.maxKeepAliveRequests = maxKeepAliveRequests;
+            return this;
+        }
+
+        // Integer.MAX_VALUE отключает сжатие на лету
+        public Builder gzipMinSize(int gzipMinSize) {
+            if (gzipMinSize < 0) {
+                throw new IllegalArgumentException("gzipMinSize must not be negative: " + gzipMinSize);
+            }
+            this.gzipMinSize = gzipMinSize;
+            return this;
+        }
+
+        public Builder maxHeaderSize(int maxHeaderSize) {
+            if (maxHeaderSize < 256) {
+                throw new IllegalArgumentException("maxHeaderSize must be at least 256: " + maxHeaderSize);
+            }
+            this.maxHeaderSize = maxHeaderSize;
+            return this;
+        }
+
+        public Builder maxHeaders(int maxHeaders) {
+            if (maxHeaders <= 0) {
+                throw new IllegalArgumentException("maxHeaders must be positive: " + maxHeaders);
+            }
+            this.maxHeaders = maxHeaders;
+            return this;
+        }
+
+        // 0 - все файлы сразу на диск
+        public Builder multipartFileThreshold(int multipartFileThreshold) {
+            if (multipartFileThreshold < 0) {
+                throw new IllegalArgumentException("multipartFileThreshold must not be negative: " + multipartFileThreshold);
+            }
+            this.multipartFileThreshold = multipartFileThreshold;
+            return this;
+        }
+
+        // false отключает печать каждого запроса в System.out (она синхронизирована
+        // и под нагрузкой тормозит обработчики); для журнала есть accessLog()
+        public Builder logRequests(boolean logRequests) {
+            this.logRequests = logRequests;
+            return this;
+        }
+
+        // null - журнал запросов не ведется
+        public Builder accessLog(Path file) {
+            this.accessLog = file;
+            return this;
+        }
+
+        // См. AccessLog: COMMON_FORMAT, COMBINED_FORMAT или свой
+        public Builder accessLogFormat(String format) {
+            if (format == null || format.isEmpty()) {
+                throw new IllegalArgumentException("accessLogFormat must not be empty");
+            }
+            this.accessLogFormat = format;
+            return this;
+        }
+
+        public Builder accessLogCapacity(int capacity) {
+            if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("accessLogCapacity must be a power of two: " + capacity);
+            }
+            this.accessLogCapacity = capacity;
+            return this;
+        }
+
+        public Builder accessLogOverflow(AccessLog.Overflow overflow) {
+            if (overflow == null) {
+                throw new IllegalArgumentException("accessLogOverflow must not be null");
+            }
+            this.accessLogOverflow = overflow;
+            return this;
+        }
+
+        // 0 - без ротации по размеру
+        public Builder accessLogMaxFileSize(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("accessLogMaxFileSize must not be negative: " + bytes);
+            }
+            this.accessLogMaxFileSize = bytes;
+            return this;
+        }
+
+        // 0 - без ротации по времени
+        public Builder accessLogRotateInterval(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("accessLogRotateInterval must not be negative: " + millis);
+            }
+            this.accessLogRotateInterval = millis;
+            return this;
+        }
+
+        // 0 - не ждать: соединения закрываются сразу
+        public Builder shutdownTimeout(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("shutdownTimeout must not be negative: " + millis);
+            }
+            this.shutdownTimeout = millis;
+            return this;
+        }
+
+        public Builder shutdownHook(boolean shutdownHook) {
+            this.shutdownHook = shutdownHook;
+            return this;
+        }
+
+        public ServerConfig build() {
+            return new ServerConfig(this);
+        }
+    }
+}
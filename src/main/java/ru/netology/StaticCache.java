@@ -0,0 +1,223 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+//StaticCache:
+//
+//Кэш ответов для статических файлов
+//Для каждого файла хранит заранее сформированные байты заголовков (200 и 304),
+//ETag, Last-Modified и, если файл не больше maxEntryBytes, само содержимое
+//Рядом с исходным вариантом хранятся сжатые: gzip (готовый file.gz с диска или
+//сжатый один раз при загрузке) и br (только готовый file.br с диска)
+//Общий объем ограничен maxBytes, при переполнении вытесняются давно не запрошенные (LRU)
+//Записи сбрасываются по событиям FileWatcher, поэтому на каждый запрос файл не проверяется
+public class StaticCache {
+    static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+    // Файлы меньше этого размера не сжимаются: выигрыш меньше заголовка gzip
+    static final int MIN_COMPRESS_SIZE = 256;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    // Растет при каждом invalidate(): запись, прочитанная до сброса, в кэш не попадает
+    private long generation;
+//Конструктор StaticCache(long maxBytes, long maxEntryBytes):
+//
+//maxBytes - бюджет памяти на весь кэш
+//maxEntryBytes - файлы больше этого размера не держатся в памяти, для них
+//кэшируются только заголовки, а тело отправляется через sendfile
+    public StaticCache(long maxBytes, long maxEntryBytes) {
+        if (maxBytes <= 0 || maxEntryBytes <= 0) {
+            throw new IllegalArgumentException("cache sizes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+    }
+//watch(FileWatcher watcher):
+//
+//Подписывает кэш на изменения файлов: измененный файл (или все файлы папки) сбрасывается
+    public void watch(FileWatcher watcher) {
+        watcher.addListener(this::invalidate);
+    }
+//get(Path file, String mimeType):
+//
+//Возвращает запись из кэша или читает файл и кладет его в кэш
+//Чтение идет без блокировки кэша: два потока могут одновременно прочитать
+//один и тот же файл, в кэше останется последний
+    public Entry get(Path file, String mimeType) throws IOException {
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(file);
+            if (entry != null) {
+                return entry;
+            }
+            loadGeneration = generation;
+        }
+        Entry entry = load(file, mimeType);
+        synchronized (this) {
+            if (loadGeneration != generation) {
+                return entry;
+            }
+            Entry previous = entries.put(file, entry);
+            if (previous != null) {
+                usedBytes -= previous.size();
+            }
+            usedBytes += entry.size();
+            evict();
+        }
+        return entry;
+    }
+//invalidate(Path path):
+//
+//Удаляет запись файла; если path - папка, удаляет все записи внутри нее
+//Изменение file.gz или file.br сбрасывает запись file
+    public synchronized void invalidate(Path path) {
+        generation++;
+        Path original = originalOf(path);
+        Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Entry> entry = it.next();
+            if (entry.getKey().startsWith(path) || entry.getKey().equals(original)) {
+                usedBytes -= entry.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            usedBytes -= it.next().size();
+            it.remove();
+        }
+    }
+
+    private Entry load(Path file, String mimeType) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long length = attributes.size();
+        Instant modified = attributes.lastModifiedTime().toInstant();
+        String tag = Long.toHexString(length) + "-" + Long.toHexString(modified.toEpochMilli());
+        String lastModified = HTTP_DATE.format(modified);
+        boolean compressible = ContentEncoding.isCompressible(mimeType);
+
+        byte[] body = length <= maxEntryBytes ? Files.readAllBytes(file) : null;
+        if (body != null && body.length != length) {
+            // Файл изменился между чтением атрибутов и содержимого
+            body = null;
+        }
+        Variant identity = variant(null, file, length, body, mimeType, tag, lastModified, compressible);
+
+        Variant gzip = fromDisk(ContentEncoding.GZIP, file, ".gz", modified, mimeType, tag, lastModified);
+        if (gzip == null && compressible && body != null && body.length >= MIN_COMPRESS_SIZE) {
+            byte[] compressed = ContentEncoding.gzip(body, ContentEncoding.STATIC_LEVEL);
+            if (compressed.length < body.length) {
+                gzip = variant(ContentEncoding.GZIP, null, compressed.length, compressed, mimeType, tag, lastModified, true);
+            }
+        }
+        Variant brotli = fromDisk(ContentEncoding.BROTLI, file, ".br", modified, mimeType, tag, lastModified);
+        return new Entry(modified.getEpochSecond(), identity, gzip, brotli);
+    }
+//fromDisk(...):
+//
+//Вариант из готового сжатого файла рядом с исходным (app.js.gz для app.js)
+//Файл, который старше исходного, считается устаревшим и не используется
+    private Variant fromDisk(String encoding, Path file, String suffix, Instant originalModified,
+                             String mimeType, String tag, String lastModified) throws IOException {
+        Path sibling = file.resolveSibling(file.getFileName() + suffix);
+        if (!Files.isRegularFile(sibling)) return null;
+        BasicFileAttributes attributes = Files.readAttributes(sibling, BasicFileAttributes.class);
+        if (attributes.lastModifiedTime().toInstant().isBefore(originalModified)) return null;
+        long length = attributes.size();
+        byte[] body = length <= maxEntryBytes ? Files.readAllBytes(sibling) : null;
+        if (body != null && body.length != length) {
+            body = null;
+        }
+        return variant(encoding, sibling, length, body, mimeType, tag, lastModified, true);
+    }
+
+    private static Variant variant(String encoding, Path path, long length, byte[] body, String mimeType,
+                                   String tag, String lastModified, boolean vary) {
+        // Сильный ETag должен различаться для разных кодировок одного файла
+        String etag = "\"" + tag + (encoding == null ? "" : "-" + encoding) + "\"";
+        String common = "ETag: " + etag + "\r\n" +
+                "Last-Modified: " + lastModified + "\r\n" +
+                (vary ? "Vary: Accept-Encoding\r\n" : "");
+        byte[] okHeaders = ("HTTP/1.1 200 OK\r\n" +
+                "Content-Type: " + mimeType + "\r\n" +
+                (encoding == null ? "" : "Content-Encoding: " + encoding + "\r\n") +
+                "Content-Length: " + length + "\r\n" +
+                common).getBytes(US_ASCII);
+        byte[] notModifiedHeaders = ("HTTP/1.1 304 Not Modified\r\n" + common).getBytes(US_ASCII);
+        return new Variant(path, length, etag, okHeaders, notModifiedHeaders, body == null ? null : direct(body));
+    }
+
+    // Read-only direct копия: ее разделяют все ответы, и в сокет она пишется без копирования
+    private static ByteBuffer direct(byte[] body) {
+        return ByteBuffer.allocateDirect(body.length).put(body).flip().asReadOnlyBuffer();
+    }
+
+    private static Path originalOf(Path path) {
+        String name = path.getFileName() == null ? "" : path.getFileName().toString();
+        if (name.endsWith(".gz")) {
+            return path.resolveSibling(name.substring(0, name.length() - 3));
+        }
+        if (name.endsWith(".br")) {
+            return path.resolveSibling(name.substring(0, name.length() - 3));
+        }
+        return path;
+    }
+//Entry:
+//
+//Все варианты одного файла; gzip и brotli равны null, если их нет
+    public record Entry(long lastModifiedSeconds, Variant identity, Variant gzip, Variant brotli) {
+//select(Request request):
+//
+//Выбирает вариант по Accept-Encoding: br, затем gzip, затем без сжатия
+        public Variant select(Request request) {
+            String acceptEncoding = request.getHeader("accept-encoding");
+            if (acceptEncoding == null) return identity;
+            if (brotli != null && ContentEncoding.accepts(acceptEncoding, ContentEncoding.BROTLI)) return brotli;
+            if (gzip != null && ContentEncoding.accepts(acceptEncoding, ContentEncoding.GZIP)) return gzip;
+            return identity;
+        }
+
+        long size() {
+            return identity.size()
+                    + (gzip == null ? 0 : gzip.size())
+                    + (brotli == null ? 0 : brotli.size());
+        }
+    }
+//Variant:
+//
+//okHeaders/notModifiedHeaders - строки статуса и заголовков без Connection и
+//завершающей пустой строки (Connection зависит от соединения)
+//body - содержимое или null, если оно не поместилось в кэш (тогда отправляется path)
+//body общий для всех ответов: читать его нужно через duplicate(), не сдвигая сам буфер
+    public record Variant(Path path, long length, String etag,
+                          byte[] okHeaders, byte[] notModifiedHeaders, ByteBuffer body) {
+
+        long size() {
+            return okHeaders.length + notModifiedHeaders.length + (body == null ? 0 : body.capacity());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ru.netology;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//StaticFileHandler:
+//
+//Один обработчик на всю папку со статикой (например, ./public), регистрируется
+//одним маршрутом на все пути: server.addHandler("GET", "/*", handler)
+//Файл ищется в папке на каждый запрос, поэтому файлы, добавленные после запуска,
+//отдаются сразу; путь, выходящий за пределы папки ("/../secret"), получает 404
+//MIME-типы определяются один раз на расширение, а не через Files.probeContentType
+//на каждый запрос
+//Тело отправляется через Server.sendOk(out, mime, Path), то есть через sendfile
+//С StaticCache ответы отдаются из памяти, с ETag/Last-Modified и 304 Not Modified,
+//а клиенты с Accept-Encoding получают заранее сжатый вариант (gzip/br)
+public class StaticFileHandler implements Handler {
+    static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+    // Запасная таблица на случай, если probeContentType не знает расширение
+    private static final Map<String, String> MIME_BY_EXTENSION = Map.of(
+            "html", "text/html",
+            "css", "text/css",
+            "js", "text/javascript",
+            "json", "application/json",
+            "svg", "image/svg+xml",
+            "png", "image/png",
+            "jpg", "image/jpeg",
+            "ico", "image/x-icon",
+            "txt", "text/plain"
+    );
+
+    private final Server server;
+    private final Path root;
+    private final StaticCache cache;
+    // Расширение файла (в нижнем регистре, "" - без расширения) -> MIME-тип
+    private final ConcurrentHashMap<String, String> mimeTypes = new ConcurrentHashMap<>();
+//Конструктор StaticFileHandler(Server server, Path root):
+//
+//Отдает файлы из root; путь запроса - "/" + путь файла относительно root через "/"
+    public StaticFileHandler(Server server, Path root) {
+        this(server, root, null);
+    }
+//Конструктор StaticFileHandler(Server server, Path root, StaticCache cache):
+//
+//То же самое, но ответы берутся из cache (null - без кэша)
+    public StaticFileHandler(Server server, Path root, StaticCache cache) {
+        this.server = server;
+        this.cache = cache;
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public void handle(Request request, BufferedOutputStream out) {
+        try {
+            Path file = resolve(request.getPath());
+            if (file == null) {
+                server.sendNotFound(out);
+                return;
+            }
+            String mimeType = mimeTypes.computeIfAbsent(extensionOf(file), extension -> mimeTypeOf(file));
+            if (cache == null) {
+                server.sendOk(out, mimeType, file);
+                return;
+            }
+            sendCached(request, out, cache.get(file, mimeType));
+        } catch (IOException e) {
+            // Ответ уже начат (ошибка при отправке тела): второй ответ рассинхронизировал бы
+            // keep-alive соединение, поэтому ошибка уходит серверу, и он закрывает соединение
+            if (!(out instanceof ResponseStream response) || response.isCommitted()) {
+                throw new UncheckedIOException(e);
+            }
+            // Файл пропал или не читается, а ответ еще не начат
+            try {
+                server.sendNotFound(out);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+//sendCached(Request request, BufferedOutputStream out, StaticCache.Entry entry):
+//
+//Выбирает вариант по Accept-Encoding
+//Отвечает 304 без тела, если у клиента актуальная версия, иначе 200 с телом
+//из памяти (или через sendfile, если вариант не поместился в кэш)
+//Тело из памяти - direct буфер, оно уходит в сокет вместе с заголовками без копирования
+    private void sendCached(Request request, BufferedOutputStream out, StaticCache.Entry entry) throws IOException {
+        StaticCache.Variant variant = entry.select(request);
+        if (isNotModified(request, variant.etag(), entry.lastModifiedSeconds())) {
+            out.write(variant.notModifiedHeaders());
+            out.write(ResponseHeaders.end(out));
+            out.flush();
+            return;
+        }
+        out.write(variant.okHeaders());
+        out.write(ResponseHeaders.end(out));
+        if (variant.body() != null) {
+            if (out instanceof ResponseStream response) {
+                response.writeBody(variant.body());
+            } else {
+                out.flush();
+                Channels.newChannel(out).write(variant.body().duplicate());
+            }
+        } else if (out instanceof ResponseStream response) {
+            response.transferFile(variant.path(), 0, variant.length());
+        } else {
+            Files.copy(variant.path(), out);
+        }
+        out.flush();
+    }
+//isNotModified(Request request, String etag, long lastModifiedSeconds):
+//
+//If-None-Match главнее If-Modified-Since (RFC 9110 13.2.2)
+    static boolean isNotModified(Request request, String etag, long lastModifiedSeconds) {
+        String ifNoneMatch = request.getHeader("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                String candidate = tag.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader("if-modified-since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+                return lastModifiedSeconds <= since;
+            } catch (DateTimeParseException e) {
+                // Некорректную дату игнорируем, как будто заголовка нет
+            }
+        }
+        return false;
+    }
+
+//resolve(String requestPath):
+//
+//Файл под root для пути запроса или null, если это не обычный файл
+//или путь выходит за пределы root (та же проверка, что в TemplateEngine)
+    private Path resolve(String requestPath) {
+        try {
+            Path file = root.resolve(requestPath.substring(1)).normalize();
+            if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+                return null;
+            }
+            return file;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private static String extensionOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot == -1 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    static String mimeTypeOf(Path file) {
+        String mimeType = null;
+        try {
+            mimeType = Files.probeContentType(file);
+        } catch (IOException e) {
+            // Используем таблицу по расширению
+        }
+        if (mimeType != null) {
+            return mimeType;
+        }
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot == -1) {
+            return DEFAULT_MIME_TYPE;
+        }
+        return MIME_BY_EXTENSION.getOrDefault(name.substring(dot + 1).toLowerCase(Locale.ROOT), DEFAULT_MIME_TYPE);
+    }
+}
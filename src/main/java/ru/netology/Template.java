@@ -0,0 +1,113 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//Template:
+//
+//Разобранный один раз шаблон страницы: статические куски уже в байтах UTF-8,
+//между ними подстановки {name}
+//Подстановка - имя из букв, цифр, '_', '.' и '-' в фигурных скобках; остальные скобки
+//(CSS, JavaScript) остаются текстом
+//Отрисовка пишет куски прямо в поток ответа, не собирая страницу в String,
+//а длина ответа считается заранее: длина статических кусков + длины значений
+//Шаблоны создает и обновляет TemplateEngine
+public final class Template {
+    private final byte[][] chunks;
+    private final String[] names;
+    // Текст "{name}" для подстановок без значения
+    private final byte[][] literals;
+    private final int staticLength;
+
+    private Template(byte[][] chunks, String[] names) {
+        this.chunks = chunks;
+        this.names = names;
+        this.literals = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            literals[i] = ("{" + names[i] + "}").getBytes(UTF_8);
+        }
+        int length = 0;
+        for (byte[] chunk : chunks) {
+            length += chunk.length;
+        }
+        this.staticLength = length;
+    }
+//parse(String text):
+//
+//Делит текст на куски: chunks[0] {names[0]} chunks[1] ... {names[n - 1]} chunks[n]
+    public static Template parse(String text) {
+        List<byte[]> chunks = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        int open = text.indexOf('{');
+        while (open != -1) {
+            int close = nameEnd(text, open + 1);
+            if (close > open + 1 && close < text.length() && text.charAt(close) == '}') {
+                chunks.add(text.substring(start, open).getBytes(UTF_8));
+                names.add(text.substring(open + 1, close));
+                start = close + 1;
+                open = text.indexOf('{', start);
+            } else {
+                open = text.indexOf('{', open + 1);
+            }
+        }
+        chunks.add(text.substring(start).getBytes(UTF_8));
+        return new Template(chunks.toArray(new byte[0][]), names.toArray(new String[0]));
+    }
+
+    private static int nameEnd(String text, int from) {
+        int i = from;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-')) break;
+            i++;
+        }
+        return i;
+    }
+
+    // Имена подстановок в порядке появления (с повторами)
+    public List<String> getNames() {
+        return Arrays.asList(names.clone());
+    }
+//encode(Map<String, ?> values):
+//
+//Значения подстановок в байтах, по одному на каждую подстановку шаблона
+//Значение без ключа в values оставляет в странице исходный текст {name}
+    byte[][] encode(Map<String, ?> values) {
+        byte[][] encoded = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            Object value = values.get(names[i]);
+            encoded[i] = value == null ? literals[i] : value.toString().getBytes(UTF_8);
+        }
+        return encoded;
+    }
+
+    // Длина страницы с уже закодированными значениями (для Content-Length)
+    int length(byte[][] encoded) {
+        int length = staticLength;
+        for (byte[] value : encoded) {
+            length += value.length;
+        }
+        return length;
+    }
+
+    void render(OutputStream out, byte[][] encoded) throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            out.write(chunks[i]);
+            out.write(encoded[i]);
+        }
+        out.write(chunks[names.length]);
+    }
+//render(OutputStream out, Map<String, ?> values):
+//
+//Пишет страницу в out; сам out не сбрасывается и не закрывается
+    public void render(OutputStream out, Map<String, ?> values) throws IOException {
+        render(out, encode(values));
+    }
+}
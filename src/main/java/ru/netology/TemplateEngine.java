@@ -0,0 +1,63 @@
+package ru.netology;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+//TemplateEngine:
+//
+//Шаблоны страниц из папки root: файл читается и разбирается в Template один раз,
+//при первом запросе, и дальше берется из памяти
+//Как и StaticCache, подписывается на FileWatcher: измененный файл сбрасывается
+//и при следующем запросе разбирается заново (правка страницы видна без перезапуска)
+public class TemplateEngine {
+    private final Path root;
+    private final Map<Path, Template> templates = new HashMap<>();
+    // Растет при каждом invalidate(): шаблон, прочитанный до сброса, в кэш не попадает
+    private long generation;
+
+    public TemplateEngine(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+//watch(FileWatcher watcher):
+//
+//Подписывает шаблоны на изменения файлов
+    public void watch(FileWatcher watcher) {
+        watcher.addListener(this::invalidate);
+    }
+//get(String name):
+//
+//Шаблон по пути относительно root (например, "classic.html")
+//NoSuchFileException, если файла нет или путь выходит за пределы root
+    public Template get(String name) throws IOException {
+        Path file = root.resolve(name).normalize();
+        if (!file.startsWith(root)) {
+            throw new NoSuchFileException(name);
+        }
+        long loadGeneration;
+        synchronized (this) {
+            Template template = templates.get(file);
+            if (template != null) {
+                return template;
+            }
+            loadGeneration = generation;
+        }
+        Template template = Template.parse(Files.readString(file));
+        synchronized (this) {
+            if (loadGeneration == generation) {
+                templates.put(file, template);
+            }
+        }
+        return template;
+    }
+//invalidate(Path path):
+//
+//Сбрасывает шаблон файла; если path - папка, все шаблоны внутри нее
+    public synchronized void invalidate(Path path) {
+        generation++;
+        templates.keySet().removeIf(file -> file.startsWith(path));
+    }
+}